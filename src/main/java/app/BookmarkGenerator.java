@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+/**
+ * Generates bookmarks ({@code <prefix><number>}) for outbound events and chat.
+ * <p>
+ * Each room has its own generator, with the room id in the prefix (see
+ * {@link Message#newBookmarks(String)}). A room creates its messages one at a
+ * time (see {@link RoomMailbox}), so the counter is a plain {@code long}:
+ * nothing is shared between rooms, and a room's bookmarks go up in the order
+ * it sends them, even when its work moves between threads (the mailbox hands
+ * the room from one drain to the next). A player can then be sent everything
+ * after the last bookmark they saw.
+ * <p>
+ * Not thread-safe: only use a generator from its room's thread.
+ */
+final class BookmarkGenerator {
+
+    private final char[] prefix;
+    private long counter;
+
+    /**
+     * @param prefix Prefix for every bookmark, e.g. "room-"
+     */
+    BookmarkGenerator(String prefix) {
+        this.prefix = prefix.toCharArray();
+    }
+
+    /**
+     * @return a new bookmark, ordered after every bookmark this generator created before it
+     */
+    String next() {
+        return format(++counter);
+    }
+
+    /**
+     * @param n Number (not negative)
+     * @return prefix followed by n, built in a single char array
+     */
+    String format(long n) {
+        int digits = 1;
+        for (long v = n; v >= 10; v /= 10) {
+            digits++;
+        }
+        char[] chars = new char[prefix.length + digits];
+        System.arraycopy(prefix, 0, chars, 0, prefix.length);
+        for (int i = chars.length - 1; i >= prefix.length; i--) {
+            chars[i] = (char) ('0' + (n % 10));
+            n /= 10;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Room commands (e.g. {@code /ping}), looked up by the first word of a room
+ * message.
+ * <p>
+ * A command is registered once, with any aliases (e.g. {@code /look} and
+ * {@code /examine}). Commands registered with a description are advertised
+ * to players: they are added to the {@link RoomDescription}. Built-in commands
+ * (like {@code /go}, which every room has to support) are registered without
+ * one.
+ * <p>
+ * Lookup works over the raw message content: the verb is matched in place,
+ * ignoring case (see {@link IgnoreCaseMap}), so no lower-cased copy of the
+ * message (or of its first word) is made. The table is replaced (not changed) when a command is
+ * registered, so lookups don't lock.
+ * <p>
+ * For a verb that isn't known, {@link #suggest(String)} finds the nearest
+ * registered one (within an edit distance or two) in a {@link Trie}, which is
+ * updated as commands come and go rather than rebuilt.
+ */
+final class CommandRegistry {
+
+    /**
+     * Handles one command
+     */
+    @FunctionalInterface
+    interface Command {
+        /**
+         * @param userId   Player that sent the command
+         * @param username Player's current name
+         * @param content  The whole message, as sent
+         * @param argument Everything after the verb, trimmed: null if there is nothing
+         * @param handler  To send replies
+         */
+        void handle(String userId, String username, String content, String argument, SocketHandler handler);
+    }
+
+    private static final class Entry {
+        final String verb;
+        final String primary;
+        final Command command;
+
+        Entry(String verb, String primary, Command command) {
+            this.verb = verb;
+            this.primary = primary;
+            this.command = command;
+        }
+    }
+
+    private final RoomDescription roomDescription;
+
+    private volatile IgnoreCaseMap<Command> table = IgnoreCaseMap.empty();
+    /**
+     * Every verb, and anything else worth suggesting, for "did you mean": updated incrementally
+     */
+    private volatile Trie<String> suggestions = Trie.empty();
+    /**
+     * Registered verbs and aliases: guarded by this
+     */
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * @param roomDescription Where advertised commands are listed
+     */
+    CommandRegistry(RoomDescription roomDescription) {
+        this.roomDescription = roomDescription;
+    }
+
+    /**
+     * Register (or replace) a command.
+     *
+     * @param verb        The command, e.g. "/ping": case doesn't matter
+     * @param description Description shown to players, or null for a built-in command that isn't advertised
+     * @param command     Handles the command
+     * @param aliases     Other verbs for the same command
+     */
+    synchronized void register(String verb, String description, Command command, String... aliases) {
+        requireVerb(verb);
+        for (String alias : aliases) {
+            requireVerb(alias);
+        }
+        unregister(verb);
+        entries.add(new Entry(verb, verb, command));
+        Trie<String> words = suggestions.put(verb, verb);
+        for (String alias : aliases) {
+            unregister(alias);
+            entries.add(new Entry(alias, verb, command));
+            words = words.put(alias, alias);
+        }
+        suggestions = words;
+        rebuild();
+        if (description != null) {
+            roomDescription.addCommand(verb, description);
+        }
+    }
+
+    /**
+     * Remove a command, along with its aliases.
+     *
+     * @param verb The command, as registered
+     */
+    synchronized void unregister(String verb) {
+        String primary = null;
+        for (Entry e : entries) {
+            if (e.primary.equalsIgnoreCase(verb)) {
+                primary = e.primary;
+                break;
+            }
+        }
+        // The command and its aliases, or just an alias
+        String p = primary;
+        Trie<String> words = suggestions;
+        for (Iterator<Entry> i = entries.iterator(); i.hasNext(); ) {
+            Entry e = i.next();
+            if (p == null ? e.verb.equalsIgnoreCase(verb) : e.primary.equals(p)) {
+                i.remove();
+                words = words.remove(e.verb);
+            }
+        }
+        if (words != suggestions) {
+            suggestions = words;
+            rebuild();
+        }
+        if (primary != null) {
+            roomDescription.removeCommand(primary);
+        }
+    }
+
+    /**
+     * Add something to suggest when a player mistypes a command, which isn't
+     * a command itself: e.g. "/go North" for "/north".
+     *
+     * @param word       What the player might (nearly) type
+     * @param suggestion What to suggest
+     */
+    synchronized void addSuggestion(String word, String suggestion) {
+        requireVerb(word);
+        suggestions = suggestions.put(word, suggestion);
+    }
+
+    /**
+     * @param content Message content that isn't a known command
+     * @return The nearest command (or other suggestion) to its first word, or null if nothing is close
+     */
+    String suggest(String content) {
+        int start = skipSpace(content, 0);
+        int end = skipWord(content, start);
+        int length = end - start;
+        if (length < 2) {
+            return null;
+        }
+        // One typo in a short verb, two in a longer one
+        Trie.Match<String> match = suggestions.nearest(content, start, end, length <= 4 ? 1 : 2);
+        return match == null ? null : match.getValue();
+    }
+
+    /**
+     * @param content Message content: the verb is the first word, leading whitespace is ignored
+     * @return true if a command was found (and called)
+     */
+    boolean dispatch(String userId, String username, String content, SocketHandler handler) {
+        int length = content.length();
+        int start = skipSpace(content, 0);
+        int end = skipWord(content, start);
+
+        Command command = find(content, start, end);
+        if (command == null) {
+            return false;
+        }
+
+        int argStart = skipSpace(content, end);
+        int argEnd = length;
+        while (argEnd > argStart && content.charAt(argEnd - 1) <= ' ') {
+            argEnd--;
+        }
+        String argument = argStart == argEnd ? null : content.substring(argStart, argEnd);
+        command.handle(userId, username, content, argument, handler);
+        return true;
+    }
+
+    /**
+     * @return The command for the verb at content[start, end), ignoring case: null if there isn't one
+     */
+    Command find(String content, int start, int end) {
+        return table.get(content, start, end);
+    }
+
+    /**
+     * @return number of registered verbs, including aliases
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Caller must hold the lock
+     */
+    private void rebuild() {
+        Map<String, Command> verbs = new LinkedHashMap<>();
+        for (Entry e : entries) {
+            verbs.put(e.verb, e.command);
+        }
+        table = IgnoreCaseMap.copyOf(verbs);
+    }
+
+    private static int skipSpace(String s, int i) {
+        while (i < s.length() && s.charAt(i) <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWord(String s, int i) {
+        while (i < s.length() && s.charAt(i) > ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static void requireVerb(String verb) {
+        if (verb == null || verb.isEmpty()) {
+            throw new IllegalArgumentException("verb is required");
+        }
+        for (int i = 0; i < verb.length(); i++) {
+            if (verb.charAt(i) <= ' ') {
+                throw new IllegalArgumentException("verb can't contain whitespace: " + verb);
+            }
+        }
+    }
+}
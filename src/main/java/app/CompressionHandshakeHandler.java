@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides whether a connection to {@code /room} uses permessage-deflate.
+ * <p>
+ * The extension is accepted when the client asks for it, unless compression
+ * is turned off ({@code room.compression.enabled=false}), or the client
+ * opted out for its session by connecting with {@code ?compress=false}.
+ */
+class CompressionHandshakeHandler extends DefaultHandshakeHandler {
+
+    static final String COMPRESS_PARAM = "compress";
+
+    private final RoomSettings.Compression settings;
+
+    CompressionHandshakeHandler(RoomSettings.Compression settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                                                                 List<WebSocketExtension> requested,
+                                                                 List<WebSocketExtension> supported) {
+        List<WebSocketExtension> extensions = super.filterRequestedExtensions(request, requested, supported);
+        if (settings.isEnabled() && wantsCompression(request)) {
+            return extensions;
+        }
+
+        List<WebSocketExtension> result = new ArrayList<>(extensions.size());
+        for (WebSocketExtension e : extensions) {
+            if (!Deflation.PERMESSAGE_DEFLATE.equalsIgnoreCase(e.getName())) {
+                result.add(e);
+            }
+        }
+        return result;
+    }
+
+    private static boolean wantsCompression(ServerHttpRequest request) {
+        String compress = UriComponentsBuilder.fromUri(request.getURI()).build()
+                .getQueryParams().getFirst(COMPRESS_PARAM);
+        return !"false".equalsIgnoreCase(compress);
+    }
+}
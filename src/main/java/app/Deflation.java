@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * permessage-deflate (RFC 7692) helpers.
+ * <p>
+ * The container does the actual compression once the extension has been
+ * negotiated, and doesn't say how well it did. To estimate what compression
+ * saves, a sample of outbound frames ({@code room.compression.measure-every})
+ * is deflated a second time here, the same way: see {@link OutboundFrame#getDeflatedSize()}.
+ * Each message is deflated on its own (as with {@code server_no_context_takeover}),
+ * so the estimate errs on the large side. The time counted here is what the
+ * estimate costs, not what the container spends compressing.
+ */
+final class Deflation {
+
+    static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    /**
+     * Trailer removed from the end of each compressed message (RFC 7692, 7.2.1)
+     */
+    private static final int TRAILER = 4;
+
+    /**
+     * Deflaters are expensive to create (and hold native memory), so they are
+     * pooled rather than created per thread: writers may be virtual threads.
+     */
+    private static final Queue<Deflating> POOL = new ConcurrentLinkedQueue<>();
+
+    private static final AtomicLong messages = new AtomicLong();
+    private static final AtomicLong nanos = new AtomicLong();
+
+    private Deflation() {
+    }
+
+    /**
+     * @param session WebSocket session
+     * @return true if permessage-deflate was negotiated for the session
+     */
+    static boolean isNegotiated(WebSocketSession session) {
+        List<WebSocketExtension> extensions = session.getExtensions();
+        if (extensions != null) {
+            for (WebSocketExtension e : extensions) {
+                if (PERMESSAGE_DEFLATE.equalsIgnoreCase(e.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param payload UTF-8 encoded message payload
+     * @return size of the payload once compressed as a permessage-deflate message
+     */
+    static int deflatedSize(byte[] payload) {
+        long start = System.nanoTime();
+        Deflating d = POOL.poll();
+        if (d == null) {
+            d = new Deflating();
+        }
+        try {
+            d.deflater.reset();
+            d.deflater.setInput(payload);
+            int size = 0;
+            int n;
+            do {
+                n = d.deflater.deflate(d.buffer, 0, d.buffer.length, Deflater.SYNC_FLUSH);
+                size += n;
+            } while (n == d.buffer.length);
+            return Math.max(1, size - TRAILER);
+        } finally {
+            POOL.offer(d);
+            messages.incrementAndGet();
+            nanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return number of messages deflated to estimate compressed size (a sample, not every message sent)
+     */
+    static long getMessages() {
+        return messages.get();
+    }
+
+    /**
+     * @return time spent deflating messages for the estimate, in nanoseconds
+     */
+    static long getNanos() {
+        return nanos.get();
+    }
+
+    private static final class Deflating {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final byte[] buffer = new byte[8192];
+    }
+}
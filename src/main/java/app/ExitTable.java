@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The room's exits, built once from {@link RoomSettings#getExits()}.
+ * <p>
+ * Every exit can be found by its id, its name, or any of its aliases,
+ * ignoring case, with a single lookup (see {@link IgnoreCaseMap}): a room
+ * with many doors costs no more per {@code /go} than one with four. What is
+ * said when a player leaves is rendered up front, too.
+ */
+final class ExitTable {
+
+    /**
+     * One exit
+     */
+    static final class Exit {
+        private final String id;
+        private final String name;
+        private final String door;
+        private final String departure;
+
+        private Exit(String id, String name, String door, String departure) {
+            this.id = id;
+            this.name = name;
+            this.door = door;
+            this.departure = departure;
+        }
+
+        /**
+         * @return exit id, as known to the map service
+         */
+        String getId() {
+            return id;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return description of the door, or null
+         */
+        String getDoor() {
+            return door;
+        }
+
+        /**
+         * @return what to tell a player leaving this way
+         */
+        String getDeparture() {
+            return departure;
+        }
+    }
+
+    private final Map<String, Exit> words;
+    private final IgnoreCaseMap<Exit> index;
+    private final Map<String, String> descriptions;
+
+    private ExitTable(Map<String, Exit> words, Map<String, String> descriptions) {
+        this.words = Collections.unmodifiableMap(words);
+        this.index = IgnoreCaseMap.copyOf(words);
+        this.descriptions = Collections.unmodifiableMap(descriptions);
+    }
+
+    /**
+     * @param exits Exits by id
+     * @param text  Room text, for what is said when a player leaves
+     * @return The exit table
+     * @throws IllegalArgumentException if a name or alias is used by more than one exit
+     */
+    static ExitTable of(Map<String, RoomSettings.Exit> exits, RoomText text) {
+        Map<String, Exit> words = new LinkedHashMap<>();
+        Map<String, String> descriptions = new LinkedHashMap<>();
+
+        for (Map.Entry<String, RoomSettings.Exit> e : exits.entrySet()) {
+            String id = e.getKey();
+            RoomSettings.Exit config = e.getValue();
+            String name = config.getName() == null || config.getName().isEmpty() ? id : config.getName();
+            Exit exit = new Exit(id, name, config.getDoor(), text.goForth.render(name));
+
+            add(words, id, exit);
+            add(words, name, exit);
+            for (String alias : config.getAliases()) {
+                add(words, alias.trim(), exit);
+            }
+            descriptions.put(id, exit.door == null ? name : exit.door);
+        }
+        return new ExitTable(words, descriptions);
+    }
+
+    private static void add(Map<String, Exit> words, String word, Exit exit) {
+        if (word.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, Exit> e : words.entrySet()) {
+            if (e.getKey().equalsIgnoreCase(word) && e.getValue() != exit) {
+                throw new IllegalArgumentException("'" + word + "' is used by exits "
+                        + e.getValue().id + " and " + exit.id);
+            }
+        }
+        words.put(word, exit);
+    }
+
+    /**
+     * @param direction What the player typed after /go, e.g. "North", "n" or "ladder"
+     * @return The exit, or null if there isn't one that way
+     */
+    Exit find(String direction) {
+        return direction == null ? null : index.get(direction);
+    }
+
+    /**
+     * @return Every id, name and alias, with the exit it leads to
+     */
+    Map<String, Exit> getWords() {
+        return words;
+    }
+
+    /**
+     * @return Description of each exit by id, for the location message
+     */
+    Map<String, String> getDescriptions() {
+        return descriptions;
+    }
+}
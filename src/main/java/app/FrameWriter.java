@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+import java.io.Writer;
+
+/**
+ * Reusable, per-thread buffer that outbound frames are written into: the
+ * {@code target,targetId,} header first, then the JSON payload (from a
+ * {@code JsonGenerator}). The finished frame is copied out once, with
+ * {@link #toString()}.
+ * <p>
+ * Not thread-safe: use {@link #start()} to get the calling thread's buffer.
+ */
+final class FrameWriter extends Writer {
+
+    /**
+     * Buffers that grew past this are not kept for the next frame
+     */
+    private static final int MAX_RETAINED = 64 * 1024;
+
+    private static final ThreadLocal<FrameWriter> BUFFERS = ThreadLocal.withInitial(FrameWriter::new);
+
+    private StringBuilder sb = new StringBuilder(512);
+    private int payloadStart;
+
+    /**
+     * @return this thread's buffer, emptied for a new frame
+     */
+    static FrameWriter start() {
+        FrameWriter writer = BUFFERS.get();
+        writer.reset();
+        return writer;
+    }
+
+    /**
+     * @return this thread's buffer, holding the frame being written
+     */
+    static FrameWriter current() {
+        return BUFFERS.get();
+    }
+
+    /**
+     * Write the frame header
+     *
+     * @param target   Target (first segment)
+     * @param targetId Target id (second segment, omitted if empty)
+     */
+    void header(String target, String targetId) {
+        sb.append(target).append(',');
+        if (!targetId.isEmpty()) {
+            sb.append(targetId).append(',');
+        }
+        payloadStart = sb.length();
+    }
+
+    /**
+     * @return where the payload starts (the length of the header)
+     */
+    int getPayloadStart() {
+        return payloadStart;
+    }
+
+    @Override
+    public void write(int c) {
+        sb.append((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        sb.append(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        sb.append(str, off, off + len);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+
+    private void reset() {
+        if (sb.capacity() > MAX_RETAINED) {
+            sb = new StringBuilder(512);
+        } else {
+            sb.setLength(0);
+        }
+        payloadStart = 0;
+    }
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+
+import javax.websocket.CloseReason;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * Pings quiet sessions, and closes sessions that stay quiet for too long
+ * (e.g. half-open connections from a mediator that went away).
+ * <p>
+ * Recording activity is a single timestamp write on the {@link SessionEntry}.
+ * Each session has one timeout on the {@link TimerWheel}; when it fires, the
+ * timestamp is checked, and the timeout is pushed back if there has been
+ * activity since. Nothing ever scans all sessions.
+ */
+class IdleReaper {
+
+    static final CloseStatus IDLE = new CloseStatus(CloseReason.CloseCodes.GOING_AWAY.getCode(), "Idle for too long");
+
+    private static final OutboundFrame PING_FRAME = new OutboundFrame(new PingMessage(), 0, false);
+
+    private final TimerWheel wheel;
+    private final SessionRegistry sessions;
+    private final LongSupplier clock;
+    private final Executor closer;
+    private final long pingAfter;
+    private final long idleTimeout;
+
+    private final AtomicLong pings = new AtomicLong();
+    private final AtomicLong reaped = new AtomicLong();
+
+    /**
+     * @param wheel    Timer wheel to track sessions on
+     * @param sessions Connected sessions
+     * @param settings Ping and idle timeouts
+     * @param clock    Time in milliseconds (the same clock as the wheel)
+     * @param closer   Runs (possibly blocking) session closes
+     */
+    IdleReaper(TimerWheel wheel, SessionRegistry sessions, RoomSettings.Heartbeat settings,
+               LongSupplier clock, Executor closer) {
+        this.wheel = wheel;
+        this.sessions = sessions;
+        this.clock = clock;
+        this.closer = closer;
+        this.idleTimeout = Math.max(0, settings.getIdleTimeoutMs());
+        long ping = settings.getPingAfterMs();
+        this.pingAfter = ping > 0 && (idleTimeout == 0 || ping < idleTimeout) ? ping : idleTimeout;
+    }
+
+    /**
+     * Start watching a new session
+     *
+     * @param entry Session that was opened
+     */
+    void watch(SessionEntry entry) {
+        touch(entry);
+        if (pingAfter > 0) {
+            wheel.schedule(() -> check(entry), pingAfter);
+        }
+    }
+
+    /**
+     * Record activity on a session
+     *
+     * @param entry Session a message (or pong) arrived on
+     */
+    void touch(SessionEntry entry) {
+        entry.touch(clock.getAsLong());
+    }
+
+    /**
+     * @return number of pings sent to quiet sessions
+     */
+    long getPings() {
+        return pings.get();
+    }
+
+    /**
+     * @return number of sessions closed for being idle
+     */
+    long getReaped() {
+        return reaped.get();
+    }
+
+    private void check(SessionEntry entry) {
+        if (sessions.get(entry.getId()) != entry) {
+            // closed
+            return;
+        }
+
+        long idle = clock.getAsLong() - entry.getLastActivity();
+        if (idleTimeout > 0 && idle >= idleTimeout) {
+            reaped.incrementAndGet();
+            Log.log(Level.INFO, this, "WebSocketSession with Id (" + entry.getId() + ") idle for " + idle + "ms, closing");
+            entry.getOutbound().close();
+            closer.execute(() -> SocketHandler.tryToClose(entry.getSession(), IDLE));
+            return;
+        }
+
+        long next = pingAfter - idle;
+        if (next <= 0) {
+            entry.getOutbound().offer(PING_FRAME);
+            pings.incrementAndGet();
+            next = idleTimeout > 0 ? Math.min(pingAfter, idleTimeout - idle) : pingAfter;
+        }
+        wheel.schedule(() -> check(entry), next);
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.Map;
+
+/**
+ * Immutable map with String keys that ignore case, which can be looked up
+ * by a region of a longer string (e.g. the first word of a message) without
+ * copying or lower-casing it.
+ * <p>
+ * Open addressing with linear probing, at most half full: a lookup costs the
+ * same however many keys there are.
+ *
+ * @param <V> Value type
+ */
+final class IgnoreCaseMap<V> {
+
+    private static final IgnoreCaseMap<?> EMPTY = new IgnoreCaseMap<>(new String[1], new int[1], new Object[1], 0);
+
+    private final String[] keys;
+    private final int[] hashes;
+    private final Object[] values;
+    private final int size;
+
+    private IgnoreCaseMap(String[] keys, int[] hashes, Object[] values, int size) {
+        this.keys = keys;
+        this.hashes = hashes;
+        this.values = values;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> IgnoreCaseMap<V> empty() {
+        return (IgnoreCaseMap<V>) EMPTY;
+    }
+
+    /**
+     * @param map Keys and values: where keys differ only by case, the last one wins
+     * @return An immutable copy
+     */
+    static <V> IgnoreCaseMap<V> copyOf(Map<String, ? extends V> map) {
+        int capacity = 2;
+        while (capacity < map.size() * 2) {
+            capacity <<= 1;
+        }
+        String[] keys = new String[capacity];
+        int[] hashes = new int[capacity];
+        Object[] values = new Object[capacity];
+        int mask = capacity - 1;
+        int size = 0;
+
+        for (Map.Entry<String, ? extends V> e : map.entrySet()) {
+            String key = e.getKey();
+            int h = hash(key, 0, key.length());
+            int i = spread(h) & mask;
+            while (keys[i] != null && !(hashes[i] == h && keys[i].equalsIgnoreCase(key))) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == null) {
+                size++;
+            }
+            keys[i] = key;
+            hashes[i] = h;
+            values[i] = e.getValue();
+        }
+        return new IgnoreCaseMap<>(keys, hashes, values, size);
+    }
+
+    /**
+     * @param key Key, in any case
+     * @return Value for the key, or null
+     */
+    V get(String key) {
+        return get(key, 0, key.length());
+    }
+
+    /**
+     * @param s     String containing the key
+     * @param start Start of the key in s
+     * @param end   End (exclusive) of the key in s
+     * @return Value for the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    V get(String s, int start, int end) {
+        int mask = keys.length - 1;
+        int length = end - start;
+        int h = hash(s, start, end);
+        for (int i = spread(h) & mask; ; i = (i + 1) & mask) {
+            String k = keys[i];
+            if (k == null) {
+                return null;
+            }
+            if (hashes[i] == h && k.length() == length && k.regionMatches(true, 0, s, start, length)) {
+                return (V) values[i];
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Case-insensitive hash: folds case the same way as {@link String#regionMatches(boolean, int, String, int, int)}
+     */
+    private static int hash(String s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        }
+        return h;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
@@ -17,10 +17,17 @@
 package app;
 
 import javax.json.*;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
 import javax.websocket.DecodeException;
+import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicLong;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 
 public class Message {
@@ -60,14 +67,25 @@ public class Message {
      * JSON element specifying the content bookmark.
      */
     private static final String BOOKMARK = "bookmark";
+    /**
+     * Start of every chat payload (the type is always the first element)
+     */
+    private static final String CHAT_PAYLOAD = "{\"" + TYPE + "\":\"chat\"";
     /**
      * Messages sent to everyone
      */
     private static final String ALL = "*";
     /**
-     * Incrementing message id for bookmark
+     * Looking up the JSON provider is expensive: do it once
+     */
+    private static final JsonReaderFactory READER_FACTORY = Json.createReaderFactory(null);
+    private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
+    private static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(null);
+    /**
+     * Bookmarks for events and chat that don't come from a room (e.g. the
+     * handler refusing a message): guarded by itself
      */
-    private static final AtomicLong bookmark = new AtomicLong(0);
+    private static final BookmarkGenerator BOOKMARKS = new BookmarkGenerator(PREFIX);
     /**
      * Target for the message
      *
@@ -79,9 +97,34 @@ public class Message {
      */
     private final String targetId;
     /**
-     * Stringified JSON payload
+     * String holding the JSON payload: for an inbound message, this is the
+     * whole frame, and the payload is the region between payloadStart and payloadEnd
+     */
+    private final String source;
+    private final int payloadStart;
+    private final int payloadEnd;
+    /**
+     * Stringified JSON payload: copied out of the source only when needed
+     */
+    private String payload;
+    /**
+     * Cached result of {@link #encode()}. Messages are immutable, so this is
+     * computed at most once per thread that races to do so (same idea as String.hashCode).
+     */
+    private String encoded;
+    /**
+     * Cached results of {@link #getParsedBody()} and {@link #getFields()} (same idea)
+     */
+    private JsonObject parsedBody;
+    private Fields fields;
+    /**
+     * Bookmark stamped on an outbound event or chat: null for anything else
+     */
+    private String bookmark;
+    /**
+     * Room an outbound broadcast is from (not part of the encoded message): null if not known
      */
-    private final String payload;
+    private String room;
 
     /**
      * Parse a string read from the WebSocket, and convert it into
@@ -91,33 +134,42 @@ public class Message {
      * @throws DecodeException
      */
     public Message(String s) throws DecodeException {
-        // this is getting parsed in a low-level/raw way.
+        // this is getting parsed in a low-level/raw way, in place.
         // We don't split on commas arbitrarily: there are commas in the
         // json payload, which means unnecessary splitting and joining.
-        ArrayList<String> list = new ArrayList<>(3);
-
+        // Header segments are the comma-separated values before the first brace:
+        // target, then (optionally) targetId. Anything after that is ignored.
         int brace = s.indexOf('{'); // first brace
-        int i = 0;
-        int j = s.indexOf(',');
-        while (j > 0 && j < brace) {
-            list.add(s.substring(i, j).trim());
-            i = j + 1;
-            j = s.indexOf(',', i);
-        }
-
-        if (list.isEmpty()) {
+        int comma = s.indexOf(',');
+        if (comma <= 0 || comma > brace) {
             // UMMM. Badness. Bad message. Bad!
             throw new DecodeException(s,
                     "Badly formatted payload, unable to target and targetId: \"" + s + "\"");
         }
 
-        // stash all of the rest in the data field.
-        this.payload = s.substring(i).trim();
-
         // The flowTarget is always present.
+        this.target = Target.lookup(s, trimStart(s, 0, comma), trimEnd(s, 0, comma));
+        if (this.target == null) {
+            throw new DecodeException(s, "Unknown target: \"" + s.substring(0, comma).trim() + "\"");
+        }
+
         // The destination may or may not be present, but shouldn't return null.
-        this.target = Target.valueOf(list.get(0));
-        this.targetId = list.size() > 1 ? list.get(1) : "";
+        int i = comma + 1;
+        int j = s.indexOf(',', i);
+        if (j > 0 && j < brace) {
+            this.targetId = s.substring(trimStart(s, i, j), trimEnd(s, i, j));
+            do {
+                i = j + 1;
+                j = s.indexOf(',', i);
+            } while (j > 0 && j < brace);
+        } else {
+            this.targetId = "";
+        }
+
+        // the rest is the payload: keep it where it is.
+        this.source = s;
+        this.payloadStart = trimStart(s, i, s.length());
+        this.payloadEnd = trimEnd(s, payloadStart, s.length());
     }
 
     /**
@@ -130,16 +182,116 @@ public class Message {
     private Message(Target target, String targetId, String payload) {
         this.target = target;
         this.targetId = targetId == null ? "" : targetId;
+        this.source = payload;
+        this.payloadStart = 0;
+        this.payloadEnd = payload.length();
         this.payload = payload;
     }
 
     /**
-     * Create an event targeted at a specific player (still use broadcast to send to
-     * all connections)
+     * Construct a new outbound message from a frame written by a {@link FrameWriter}
+     *
+     * @param target   General target for the message
+     * @param targetId Specific player id, '*', or ""
+     * @param frame    The whole frame: header, then payload
+     * @param payloadStart Where the payload starts in the frame
+     */
+    private Message(Target target, String targetId, String frame, int payloadStart) {
+        this.target = target;
+        this.targetId = targetId;
+        this.source = frame;
+        this.payloadStart = payloadStart;
+        this.payloadEnd = frame.length();
+        this.encoded = frame;
+    }
+
+    /**
+     * Start writing an outbound message: the header, and the start of the payload
+     * object, are written into this thread's {@link FrameWriter}.
+     * Finish it with {@link #end(JsonGenerator, Target, String)}.
+     *
+     * @return generator for the payload's fields
+     */
+    private static JsonGenerator begin(Target target, String targetId) {
+        FrameWriter writer = FrameWriter.start();
+        writer.header(target.name(), targetId == null ? "" : targetId);
+        return GENERATOR_FACTORY.createGenerator(writer).writeStartObject();
+    }
+
+    /**
+     * @return the message written since {@link #begin(Target, String)}
+     */
+    private static Message end(JsonGenerator generator, Target target, String targetId) {
+        generator.writeEnd().close();
+        FrameWriter writer = FrameWriter.current();
+        return new Message(target, targetId == null ? "" : targetId, writer.toString(), writer.getPayloadStart());
+    }
+
+    /**
+     * @param roomId Room id: null for a room that isn't hosted by a {@link RoomRegistry}
+     * @return Bookmarks for the room's events and chat, to be used only on the room's thread
+     */
+    static BookmarkGenerator newBookmarks(String roomId) {
+        return new BookmarkGenerator(roomId == null ? PREFIX : PREFIX + roomId + "-");
+    }
+
+    /**
+     * @return A bookmark for a message that doesn't come from a room
+     */
+    private static String nextBookmark() {
+        synchronized (BOOKMARKS) {
+            return BOOKMARKS.next();
+        }
+    }
+
+    /**
+     * Stamp the message with a new bookmark, and finish it
+     */
+    private static Message bookmarked(JsonGenerator generator, Target target, String targetId, BookmarkGenerator bookmarks) {
+        String bookmark = bookmarks == null ? nextBookmark() : bookmarks.next();
+        generator.write(BOOKMARK, bookmark);
+        Message m = end(generator, target, targetId);
+        m.bookmark = bookmark;
+        return m;
+    }
+
+    /**
+     * @return index of the first character in [start, end) that isn't whitespace (as {@link String#trim()})
+     */
+    private static int trimStart(String s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * @return index after the last character in [start, end) that isn't whitespace (as {@link String#trim()})
+     */
+    private static int trimEnd(String s, int start, int end) {
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Create an event targeted at a specific player (sent only to that player's
+     * sessions, if they are known: see {@link SocketHandler#sendMessage(Message)})
      *
      * @return constructed message
      */
     public static Message createSpecificEvent(String userid, String messageForUser) {
+        return createSpecificEvent(null, userid, messageForUser);
+    }
+
+    /**
+     * Create an event targeted at a specific player, bookmarked by a room
+     *
+     * @param bookmarks The room's bookmarks (null for a message that doesn't come from a room)
+     * @return constructed message
+     */
+    static Message createSpecificEvent(BookmarkGenerator bookmarks, String userid, String messageForUser) {
         //  player,<userId>,{
         //      "type": "event",
         //      "content": {
@@ -147,15 +299,14 @@ public class Message {
         //          },
         //      "bookmark": "String representing last message seen"
         //  }
-        JsonObjectBuilder payload = Json.createObjectBuilder();
-        payload.add(TYPE, EVENT);
+        JsonGenerator payload = begin(Target.player, userid);
+        payload.write(TYPE, EVENT);
 
-        JsonObjectBuilder content = Json.createObjectBuilder();
-        content.add(userid, messageForUser);
-        payload.add(CONTENT, content.build());
+        payload.writeStartObject(CONTENT)
+                .write(userid, messageForUser)
+                .writeEnd();
 
-        payload.add(BOOKMARK, PREFIX + bookmark.incrementAndGet());
-        return new Message(Target.player, userid, payload.build().toString());
+        return bookmarked(payload, Target.player, userid, bookmarks);
     }
 
     /**
@@ -167,6 +318,17 @@ public class Message {
      * @return constructed message
      */
     public static Message createBroadcastEvent(String allContent, String... pairs) {
+        return createBroadcastEvent(null, allContent, pairs);
+    }
+
+    /**
+     * Construct an event that broadcasts to all players, bookmarked by a room
+     *
+     * @param bookmarks The room's bookmarks (null for a message that doesn't come from a room)
+     * @return constructed message
+     * @see #createBroadcastEvent(String, String...)
+     */
+    static Message createBroadcastEvent(BookmarkGenerator bookmarks, String allContent, String... pairs) {
         //  player,*,{
         //      "type": "event",
         //      "content": {
@@ -175,28 +337,56 @@ public class Message {
         //      },
         //      "bookmark": "String representing last message seen"
         //  }
-        JsonObjectBuilder payload = Json.createObjectBuilder();
-        payload.add(TYPE, EVENT);
-
-        JsonObjectBuilder content = Json.createObjectBuilder();
-        if (allContent != null) {
-            content.add(ALL, allContent);
+        JsonGenerator payload = begin(Target.player, ALL);
+        payload.write(TYPE, EVENT);
+
+        payload.writeStartObject(CONTENT);
+        if (pairs != null && pairs.length % 2 != 0) {
+            Log.log(Level.WARNING, Message.class,
+                    "Programmer error: use one element as user id, and the next as the message: {0}",
+                    (Object[]) pairs);
+            pairs = null;
         }
-        if (pairs != null) {
-            if (pairs.length % 2 == 0) {
+        if (pairs != null && hasRepeatedKey(allContent, pairs)) {
+            // As a JsonObjectBuilder would: a repeated key keeps its first position, with its last value
+            Map<String, String> content = new LinkedHashMap<>();
+            if (allContent != null) {
+                content.put(ALL, allContent);
+            }
+            for (int i = 0; i < pairs.length; i += 2) {
+                content.put(pairs[i], pairs[i + 1]);
+            }
+            content.forEach(payload::write);
+        } else {
+            if (allContent != null) {
+                payload.write(ALL, allContent);
+            }
+            if (pairs != null) {
                 for (int i = 0; i < pairs.length; i += 2) {
-                    content.add(pairs[i], pairs[i + 1]);
+                    payload.write(pairs[i], pairs[i + 1]);
                 }
-            } else {
-                Log.log(Level.WARNING, Message.class,
-                        "Programmer error: use one element as user id, and the next as the message: {0}",
-                        (Object[]) pairs);
             }
         }
-        payload.add(CONTENT, content.build());
+        payload.writeEnd();
 
-        payload.add(BOOKMARK, PREFIX + bookmark.incrementAndGet());
-        return new Message(Target.player, ALL, payload.build().toString());
+        return bookmarked(payload, Target.player, ALL, bookmarks);
+    }
+
+    /**
+     * @return true if a user id appears more than once in pairs, or is '*' (with allContent)
+     */
+    private static boolean hasRepeatedKey(String allContent, String[] pairs) {
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (allContent != null && ALL.equals(pairs[i])) {
+                return true;
+            }
+            for (int j = i + 2; j < pairs.length; j += 2) {
+                if (pairs[i] != null && pairs[i].equals(pairs[j])) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /**
@@ -205,6 +395,16 @@ public class Message {
      * @return constructed message
      */
     public static Message createChatMessage(String username, String message) {
+        return createChatMessage(null, username, message);
+    }
+
+    /**
+     * A chat message, bookmarked by a room
+     *
+     * @param bookmarks The room's bookmarks (null for a message that doesn't come from a room)
+     * @return constructed message
+     */
+    static Message createChatMessage(BookmarkGenerator bookmarks, String username, String message) {
         //  player,*,{...}
         //  {
         //    "type": "chat",
@@ -213,13 +413,12 @@ public class Message {
         //    "bookmark": "String representing last message seen"
         //  }
 
-        JsonObjectBuilder payload = Json.createObjectBuilder();
-        payload.add(TYPE, "chat");
-        payload.add(USERNAME, username);
-        payload.add(CONTENT, message);
+        JsonGenerator payload = begin(Target.player, ALL);
+        payload.write(TYPE, "chat");
+        payload.write(USERNAME, username);
+        payload.write(CONTENT, message);
 
-        payload.add(BOOKMARK, PREFIX + bookmark.incrementAndGet());
-        return new Message(Target.player, ALL, payload.build().toString());
+        return bookmarked(payload, Target.player, ALL, bookmarks);
     }
 
     /**
@@ -231,6 +430,18 @@ public class Message {
      * @return constructed message
      */
     public static Message createLocationMessage(String userId, RoomDescription roomDescription) {
+        // The payload is the same for everyone: see renderLocation
+        return new Message(Target.player, userId, roomDescription.getLocationPayload());
+    }
+
+    /**
+     * Render the payload of a location message. {@link RoomDescription} caches
+     * the result, until the room changes.
+     *
+     * @param roomDescription Room attributes, at one point in time
+     * @return JSON payload
+     */
+    static String renderLocation(RoomDescription.Snapshot roomDescription) {
         //  player,<userId>,{
         //      "type": "location",
         //      "name": "Room name",
@@ -245,25 +456,33 @@ public class Message {
         //      },
         //      "roomInventory": ["itemA","itemB"]
         //  }
-        JsonObjectBuilder payload = Json.createObjectBuilder();
-        payload.add(TYPE, "location");
-        payload.add("name", roomDescription.getName());
-        payload.add("fullName", roomDescription.getFullName());
-        payload.add("description", roomDescription.getDescription());
+        StringWriter writer = new StringWriter(512);
+        JsonGenerator payload = GENERATOR_FACTORY.createGenerator(writer).writeStartObject();
+        payload.write(TYPE, "location");
+        payload.write("name", roomDescription.getName());
+        payload.write("fullName", roomDescription.getFullName());
+        payload.write("description", roomDescription.getDescription());
+
+        // map of exits (door descriptions) as a JsonObject
+        JsonObject exits = roomDescription.getExits();
+        if (!exits.isEmpty()) {
+            payload.write("exits", exits);
+        }
 
-        // convert map of commands into JsonObject
+        // map of commands as a JsonObject
         JsonObject commands = roomDescription.getCommands();
         if (!commands.isEmpty()) {
-            payload.add("commands", commands);
+            payload.write("commands", commands);
         }
 
-        // Convert list of items into json array
+        // list of items as a json array
         JsonArray inventory = roomDescription.getInventory();
         if (!inventory.isEmpty()) {
-            payload.add("roomInventory", inventory);
+            payload.write("roomInventory", inventory);
         }
 
-        return new Message(Target.player, userId, payload.build().toString());
+        payload.writeEnd().close();
+        return writer.toString();
     }
 
     /**
@@ -299,12 +518,12 @@ public class Message {
         // The exit attribute describes an exit the map service wouldn't know about..
         // This would have to be customized..
 
-        JsonObjectBuilder payload = Json.createObjectBuilder();
-        payload.add(TYPE, "exit");
-        payload.add("exitId", exitId);
-        payload.add(CONTENT, message == null ? "Fare thee well" : message);
+        JsonGenerator payload = begin(Target.playerLocation, userId);
+        payload.write(TYPE, "exit");
+        payload.write("exitId", exitId);
+        payload.write(CONTENT, message == null ? "Fare thee well" : message);
 
-        return new Message(Target.playerLocation, userId, payload.build().toString());
+        return end(payload, Target.playerLocation, userId);
     }
 
     /**
@@ -322,12 +541,12 @@ public class Message {
         //      "userId": "<userId>"
         //      "content": "<message>"
         //  }
-        JsonObjectBuilder payload = Json.createObjectBuilder();
-        payload.add(USER_ID, userId);
-        payload.add(USERNAME, username);
-        payload.add(CONTENT, content);
+        JsonGenerator payload = begin(Target.room, roomId);
+        payload.write(USER_ID, userId);
+        payload.write(USERNAME, username);
+        payload.write(CONTENT, content);
 
-        return new Message(Target.room, roomId, payload.build().toString());
+        return end(payload, Target.room, roomId);
     }
 
     /**
@@ -345,12 +564,12 @@ public class Message {
         //      "userId": "<userId>",
         //      "version": 1|2
         //  }
-        JsonObjectBuilder payload = Json.createObjectBuilder();
-        payload.add(USER_ID, userId);
-        payload.add(USERNAME, username);
-        payload.add("version", version);
+        JsonGenerator payload = begin(Target.roomHello, roomId);
+        payload.write(USER_ID, userId);
+        payload.write(USERNAME, username);
+        payload.write("version", version);
 
-        return new Message(Target.roomHello, roomId, payload.build().toString());
+        return end(payload, Target.roomHello, roomId);
     }
 
     /**
@@ -366,11 +585,11 @@ public class Message {
         //      "username": "username",
         //      "userId": "<userId>"
         //  }
-        JsonObjectBuilder payload = Json.createObjectBuilder();
-        payload.add(USER_ID, userId);
-        payload.add(USERNAME, username);
+        JsonGenerator payload = begin(Target.roomGoodbye, roomId);
+        payload.write(USER_ID, userId);
+        payload.write(USERNAME, username);
 
-        return new Message(Target.roomGoodbye, roomId, payload.build().toString());
+        return end(payload, Target.roomGoodbye, roomId);
     }
 
     /**
@@ -388,12 +607,12 @@ public class Message {
         //      "userId": "<userId>",
         //      "version": 2
         //  }
-        JsonObjectBuilder payload = Json.createObjectBuilder();
-        payload.add(USER_ID, userId);
-        payload.add(USERNAME, username);
-        payload.add("version", version);
+        JsonGenerator payload = begin(Target.roomJoin, roomId);
+        payload.write(USER_ID, userId);
+        payload.write(USERNAME, username);
+        payload.write("version", version);
 
-        return new Message(Target.roomJoin, roomId, payload.build().toString());
+        return end(payload, Target.roomJoin, roomId);
     }
 
     /**
@@ -409,11 +628,11 @@ public class Message {
         //      "username": "username",
         //      "userId": "<userId>"
         //  }
-        JsonObjectBuilder payload = Json.createObjectBuilder();
-        payload.add(USER_ID, userId);
-        payload.add(USERNAME, username);
+        JsonGenerator payload = begin(Target.roomPart, roomId);
+        payload.write(USER_ID, userId);
+        payload.write(USERNAME, username);
 
-        return new Message(Target.roomPart, roomId, payload.build().toString());
+        return end(payload, Target.roomPart, roomId);
     }
 
     /**
@@ -437,28 +656,127 @@ public class Message {
         return targetId;
     }
 
-    public JsonObject getParsedBody() {
-        JsonReader jsonReader = Json.createReader(new StringReader(payload));
-        JsonObject object = jsonReader.readObject();
-        jsonReader.close();
+    /**
+     * @return the bookmark of an outbound event or chat message, or null
+     */
+    String getBookmark() {
+        return bookmark;
+    }
+
+    /**
+     * @return the room an outbound message is from, or null
+     * @see SocketHandler#sendMessage(Message)
+     */
+    String getRoom() {
+        return room;
+    }
+
+    /**
+     * Say which room an outbound message is from, so a broadcast only goes to that room's sessions
+     *
+     * @param roomId Room id (may be null)
+     * @return this message
+     */
+    Message fromRoom(String roomId) {
+        this.room = roomId;
+        return this;
+    }
 
+    /**
+     * @return true if this is an outbound message for one specific player
+     */
+    boolean isForPlayer() {
+        return (target == Target.player || target == Target.playerLocation)
+                && !targetId.isEmpty() && !ALL.equals(targetId);
+    }
+
+    /**
+     * @return true if this is an outbound chat message
+     */
+    boolean isChat() {
+        return target == Target.player && source.startsWith(CHAT_PAYLOAD, payloadStart);
+    }
+
+    /**
+     * @return the payload as a JSON object (parsed once, then cached)
+     */
+    public JsonObject getParsedBody() {
+        JsonObject object = parsedBody;
+        if (object == null) {
+            JsonReader jsonReader = READER_FACTORY.createReader(payloadReader());
+            object = jsonReader.readObject();
+            jsonReader.close();
+            parsedBody = object;
+        }
         return object;
     }
 
     /**
-     * Convert message to a string for use as an outbound message over the WebSocket
+     * Pull the userId, username, content and bookmark out of the payload, without
+     * building a JSON object for all of it: see {@link Fields}.
+     *
+     * @return the fields (extracted once, then cached)
      */
-    public String encode() {
-        StringBuilder result = new StringBuilder();
-        result.append(target).append(',');
+    public Fields getFields() {
+        Fields result = fields;
+        if (result == null) {
+            fields = result = parsedBody == null ? Fields.parse(payloadReader(), target) : Fields.of(parsedBody);
+        }
+        return result;
+    }
+
+    /**
+     * @return the userId in the payload, or null if there isn't one
+     */
+    public String getUserId() {
+        return getFields().getUserId();
+    }
+
+    /**
+     * @return the JSON payload
+     */
+    String getPayload() {
+        String result = payload;
+        if (result == null) {
+            payload = result = source.substring(payloadStart, payloadEnd);
+        }
+        return result;
+    }
 
-        if (!targetId.isEmpty()) {
-            result.append(targetId).append(',');
+    /**
+     * @return a Reader over the payload, without copying it
+     */
+    private Reader payloadReader() {
+        StringReader reader = new StringReader(source);
+        if (payloadStart > 0) {
+            try {
+                reader.skip(payloadStart);
+            } catch (IOException e) {
+                // not for a StringReader
+                throw new IllegalStateException(e);
+            }
         }
+        return reader;
+    }
+
+    /**
+     * Convert message to a string for use as an outbound message over the WebSocket.
+     * The result is computed once and cached.
+     */
+    public String encode() {
+        String result = encoded;
+        if (result == null) {
+            StringBuilder sb = new StringBuilder(target.name().length() + targetId.length() + payloadEnd - payloadStart + 2);
+            sb.append(target.name()).append(',');
 
-        result.append(payload);
+            if (!targetId.isEmpty()) {
+                sb.append(targetId).append(',');
+            }
 
-        return result.toString();
+            sb.append(source, payloadStart, payloadEnd);
+            encoded = result = sb.toString();
+        }
+        return result;
     }
 
     @Override
@@ -470,7 +788,7 @@ public class Message {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + payload.hashCode();
+        result = prime * result + getPayload().hashCode();
         result = prime * result + target.hashCode();
         result = prime * result + targetId.hashCode();
         return result;
@@ -489,11 +807,123 @@ public class Message {
         Message other = (Message) obj;
 
         // Private constructor, none of these are ever null.
-        return payload.equals(other.payload)
+        return getPayload().equals(other.getPayload())
                 && target.equals(other.target)
                 && targetId.equals(other.targetId);
     }
 
+    /**
+     * The fields of an inbound message that the room needs most: who sent it,
+     * what it says, and (for a roomJoin) the last bookmark the client saw.
+     * Values that are missing (or aren't strings) are null.
+     * <p>
+     * The payload is read with a streaming parser: only top-level string
+     * values for these keys are kept, nested values are skipped, and nothing
+     * else is allocated. Parsing stops once every field that matters for the
+     * message's target has been found: the content of a room message (its
+     * bookmark, if any, is ignored), and the bookmark of a roomJoin (its
+     * content is ignored). Anything else is read to the end.
+     */
+    public static final class Fields {
+        private final String userId;
+        private final String username;
+        private final String content;
+        private final String bookmark;
+
+        private Fields(String userId, String username, String content, String bookmark) {
+            this.userId = userId;
+            this.username = username;
+            this.content = content;
+            this.bookmark = bookmark;
+        }
+
+        static Fields of(JsonObject body) {
+            return new Fields(body.getString(USER_ID, null),
+                    body.getString(USERNAME, null),
+                    body.getString(CONTENT, null),
+                    body.getString(BOOKMARK, null));
+        }
+
+        static Fields parse(Reader payload, Target target) {
+            String userId = null;
+            String username = null;
+            String content = null;
+            String bookmark = null;
+            boolean needContent = target != Target.roomJoin;
+            boolean needBookmark = target != Target.room;
+
+            try (JsonParser parser = PARSER_FACTORY.createParser(payload)) {
+                int depth = 0;
+                String key = null;
+                while (parser.hasNext() && (userId == null || username == null
+                        || (needContent && content == null) || (needBookmark && bookmark == null))) {
+                    switch (parser.next()) {
+                        case START_OBJECT:
+                        case START_ARRAY:
+                            depth++;
+                            key = null;
+                            break;
+                        case END_OBJECT:
+                        case END_ARRAY:
+                            depth--;
+                            break;
+                        case KEY_NAME:
+                            key = depth == 1 ? parser.getString() : null;
+                            break;
+                        case VALUE_STRING:
+                            if (key != null) {
+                                switch (key) {
+                                    case USER_ID:
+                                        userId = parser.getString();
+                                        break;
+                                    case USERNAME:
+                                        username = parser.getString();
+                                        break;
+                                    case CONTENT:
+                                        if (needContent) {
+                                            content = parser.getString();
+                                        }
+                                        break;
+                                    case BOOKMARK:
+                                        if (needBookmark) {
+                                            bookmark = parser.getString();
+                                        }
+                                        break;
+                                    default:
+                                        break;
+                                }
+                            }
+                            key = null;
+                            break;
+                        default:
+                            key = null;
+                            break;
+                    }
+                }
+            }
+            return new Fields(userId, username, content, bookmark);
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        /**
+         * @return the last bookmark the client saw (sent with roomJoin), or null
+         */
+        public String getBookmark() {
+            return bookmark;
+        }
+    }
+
     /**
      * The first segment in the WebSocket protocol for Game On!
      * This is used as a primitive routing filter as messages flow through
@@ -531,6 +961,28 @@ public class Message {
         /**
          * A player leaves the room
          */
-        roomGoodbye
+        roomGoodbye;
+
+        private static final Target[] VALUES = values();
+
+        /**
+         * Find the target named by a region of a string, without creating a
+         * substring (or an exception, as {@link #valueOf(String)} would).
+         *
+         * @param s     String containing the name
+         * @param start Start of the name
+         * @param end   End of the name (exclusive)
+         * @return the matching target, or null if there isn't one
+         */
+        static Target lookup(String s, int start, int end) {
+            int length = end - start;
+            for (Target t : VALUES) {
+                String name = t.name();
+                if (name.length() == length && s.startsWith(name, start)) {
+                    return t;
+                }
+            }
+            return null;
+        }
     }
 }
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The most recent room-wide messages (chat and broadcast events), so a
+ * player who reconnects ({@code roomJoin}) can catch up on what they missed.
+ * <p>
+ * A fixed-size ring: each message takes the next sequence number from a
+ * shared counter, and is written to slot {@code sequence % size},
+ * overwriting the oldest. Neither writers nor readers lock. A reader
+ * checks each slot's sequence number, so a slot that has been overwritten
+ * (or not yet written) is simply skipped.
+ * <p>
+ * Memory is bounded by the settings: at most {@code size} messages, of at
+ * most {@code maxMessageBytes} each, however busy the room is.
+ */
+final class MessageHistory {
+
+    private static final class Entry {
+        final long sequence;
+        final String bookmark;
+        final Message message;
+
+        Entry(long sequence, String bookmark, Message message) {
+            this.sequence = sequence;
+            this.bookmark = bookmark;
+            this.message = message;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final int maxMessageBytes;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param settings Size of the history, and of the largest message kept
+     */
+    MessageHistory(RoomSettings.History settings) {
+        int size = 0;
+        if (settings.getSize() > 0) {
+            size = 1;
+            while (size < settings.getSize()) {
+                size <<= 1;
+            }
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.maxMessageBytes = settings.getMaxMessageBytes();
+    }
+
+    /**
+     * Keep a message sent to the whole room.
+     *
+     * @param message A bookmarked message
+     * @return true if it was kept (false if it has no bookmark, is too large, or the history is off)
+     */
+    boolean record(Message message) {
+        String bookmark = message.getBookmark();
+        if (slots.length() == 0 || bookmark == null || Utf8.length(message.encode()) > maxMessageBytes) {
+            return false;
+        }
+        long seq = sequence.getAndIncrement();
+        int slot = (int) (seq & mask);
+        Entry entry = new Entry(seq, bookmark, message);
+        // A writer that stalled after taking its sequence must not overwrite a
+        // newer message that has wrapped around into the same slot.
+        Entry current;
+        do {
+            current = slots.get(slot);
+            if (current != null && current.sequence > seq) {
+                return true;
+            }
+        } while (!slots.compareAndSet(slot, current, entry));
+        return true;
+    }
+
+    /**
+     * Messages after the one with the given bookmark, oldest first. If that
+     * message is no longer kept (the player was away for a while), everything
+     * kept is returned.
+     *
+     * @param bookmark Bookmark of the last message a player saw: null if they didn't say
+     * @return messages the player missed. Never null.
+     */
+    List<Message> since(String bookmark) {
+        if (bookmark == null || slots.length() == 0) {
+            return Collections.emptyList();
+        }
+        long head = sequence.get();
+        long from = Math.max(0, head - slots.length());
+
+        long start = from;
+        for (long seq = head - 1; seq >= from; seq--) {
+            Entry e = slots.get((int) (seq & mask));
+            if (e != null && e.sequence == seq && bookmark.equals(e.bookmark)) {
+                start = seq + 1;
+                break;
+            }
+        }
+
+        List<Message> missed = new ArrayList<>((int) (head - start));
+        for (long seq = start; seq < head; seq++) {
+            Entry e = slots.get((int) (seq & mask));
+            if (e != null && e.sequence == seq) {
+                missed.add(e.message);
+            }
+        }
+        return missed;
+    }
+
+    /**
+     * @return number of messages kept (ever)
+     */
+    long getRecorded() {
+        return sequence.get();
+    }
+
+    /**
+     * @return maximum number of messages kept at once
+     */
+    int getCapacity() {
+        return slots.length();
+    }
+}
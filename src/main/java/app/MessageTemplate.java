@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@code String.format} pattern, compiled once: rendering is a run of
+ * appends, rather than parsing the pattern on every call.
+ * <p>
+ * Only what room text needs is supported: {@code %s} (arguments in order),
+ * {@code %1$s} (explicit position), {@code %%} and {@code %n}. Anything
+ * else is rejected when the template is compiled.
+ */
+final class MessageTemplate {
+
+    private final String pattern;
+    /**
+     * Literal text: one more entry than there are arguments
+     */
+    private final String[] literals;
+    /**
+     * Argument to insert after each literal (except the last)
+     */
+    private final int[] args;
+    private final int argCount;
+    private final int literalLength;
+
+    private MessageTemplate(String pattern, String[] literals, int[] args) {
+        this.pattern = pattern;
+        this.literals = literals;
+        this.args = args;
+        int count = 0;
+        for (int a : args) {
+            count = Math.max(count, a + 1);
+        }
+        this.argCount = count;
+        int length = 0;
+        for (String l : literals) {
+            length += l.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * @param pattern A pattern using %s, %n$s, %% or %n
+     * @return The compiled template
+     * @throws IllegalArgumentException if the pattern uses anything else
+     */
+    static MessageTemplate compile(String pattern) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> args = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int next = 0;
+
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i++);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            if (i == pattern.length()) {
+                throw new IllegalArgumentException("Incomplete format specifier at end of: " + pattern);
+            }
+            c = pattern.charAt(i++);
+            if (c == '%') {
+                literal.append('%');
+            } else if (c == 'n') {
+                literal.append(System.lineSeparator());
+            } else if (c == 's') {
+                args.add(next++);
+                literals.add(literal.toString());
+                literal.setLength(0);
+            } else if (c >= '1' && c <= '9') {
+                int position = c - '0';
+                while (i < pattern.length() && Character.isDigit(pattern.charAt(i))) {
+                    position = position * 10 + pattern.charAt(i++) - '0';
+                }
+                if (i + 1 >= pattern.length() || pattern.charAt(i) != '$' || pattern.charAt(i + 1) != 's') {
+                    throw new IllegalArgumentException("Unsupported format specifier in: " + pattern);
+                }
+                i += 2;
+                args.add(position - 1);
+                literals.add(literal.toString());
+                literal.setLength(0);
+            } else {
+                throw new IllegalArgumentException("Unsupported format specifier %" + c + " in: " + pattern);
+            }
+        }
+        literals.add(literal.toString());
+
+        int[] a = new int[args.size()];
+        for (int j = 0; j < a.length; j++) {
+            a[j] = args.get(j);
+        }
+        return new MessageTemplate(pattern, literals.toArray(new String[literals.size()]), a);
+    }
+
+    /**
+     * @param arg The only argument
+     * @return Rendered text, as {@code String.format(pattern, arg)}
+     */
+    String render(String arg) {
+        if (argCount > 1) {
+            throw new IllegalArgumentException("Template needs " + argCount + " arguments: " + pattern);
+        }
+        String value = String.valueOf(arg);
+        StringBuilder sb = new StringBuilder(literalLength + value.length() * args.length);
+        for (int i = 0; i < args.length; i++) {
+            sb.append(literals[i]).append(value);
+        }
+        return sb.append(literals[args.length]).toString();
+    }
+
+    /**
+     * @param values Arguments
+     * @return Rendered text, as {@code String.format(pattern, values)}
+     */
+    String render(Object... values) {
+        if (values.length < argCount) {
+            throw new IllegalArgumentException("Template needs " + argCount + " arguments: " + pattern);
+        }
+        StringBuilder sb = new StringBuilder(literalLength + 16 * args.length);
+        for (int i = 0; i < args.length; i++) {
+            sb.append(literals[i]).append(values[args[i]]);
+        }
+        return sb.append(literals[args.length]).toString();
+    }
+
+    /**
+     * @return number of arguments the template expects
+     */
+    int getArgCount() {
+        return argCount;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
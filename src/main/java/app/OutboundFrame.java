@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An encoded message waiting in one or more {@link OutboundQueue}s.
+ * Immutable: a broadcast creates one frame and shares it with every session.
+ */
+final class OutboundFrame {
+
+    private final WebSocketMessage<?> message;
+    private final int size;
+    private final boolean chat;
+    /**
+     * UTF-8 size, and estimated size once deflated: computed when first needed
+     */
+    private int encodedSize;
+    private volatile int deflatedSize = -1;
+
+    OutboundFrame(WebSocketMessage<?> message, int size, boolean chat) {
+        this.message = message;
+        this.size = size;
+        this.chat = chat;
+    }
+
+    /**
+     * @param message Message to encode
+     * @return a frame holding the encoded message
+     */
+    static OutboundFrame of(Message message) {
+        String encoded = message.encode();
+        return new OutboundFrame(new TextMessage(encoded), Utf8.length(encoded), message.isChat());
+    }
+
+    WebSocketMessage<?> getMessage() {
+        return message;
+    }
+
+    /**
+     * @return size of the frame, in bytes (UTF-8)
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * @return true if this frame is chat (and so is the first to go when a session falls behind)
+     */
+    boolean isChat() {
+        return chat;
+    }
+
+    /**
+     * @return size of the frame's payload, in bytes
+     */
+    int getEncodedSize() {
+        estimate();
+        return encodedSize;
+    }
+
+    /**
+     * Sessions that negotiated permessage-deflate share this estimate, so
+     * a broadcast is only deflated once (for the sessions that measure it).
+     *
+     * @return estimated size of the payload once compressed, in bytes
+     * @see Deflation
+     */
+    int getDeflatedSize() {
+        estimate();
+        return deflatedSize;
+    }
+
+    /**
+     * @return true if the frame has been deflated to estimate its compressed size
+     */
+    boolean isEstimated() {
+        return deflatedSize >= 0;
+    }
+
+    private void estimate() {
+        if (deflatedSize < 0) {
+            // Benign race: any thread computes the same values
+            if (message instanceof TextMessage) {
+                byte[] payload = ((TextMessage) message).asBytes();
+                encodedSize = payload.length;
+                deflatedSize = Deflation.deflatedSize(payload);
+            } else {
+                encodedSize = message.getPayloadLength();
+                deflatedSize = encodedSize;
+            }
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Bounded queue of frames waiting to be written to one WebSocketSession.
+ * <p>
+ * Callers (room logic, broadcast) only ever enqueue: the actual (blocking)
+ * write happens on a writer thread, so a slow connection only holds up
+ * itself. At most one writer drains a given queue at a time, which also
+ * keeps writes to the session serialized as the container requires.
+ * <p>
+ * When a session falls behind and the queue exceeds its message or size
+ * limit, the {@link OverflowPolicy} decides what gives.
+ * <p>
+ * Writes are coalesced: the writer starts a short window after the first
+ * frame is queued (or as soon as enough has been gathered), and writes
+ * everything queued with container batching enabled, flushing once at the
+ * end. Several messages from one player action (e.g. location + hello on
+ * {@code roomHello}, or a burst of chat) then cost one flush and one writer
+ * wake-up rather than one each. Each message is still its own WebSocket
+ * message, in order.
+ */
+class OutboundQueue implements Runnable {
+
+    /**
+     * What to do when a session can't keep up
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the oldest queued frames
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the oldest queued chat frames, then the oldest frames of any kind
+         */
+        DROP_CHAT_FIRST,
+        /**
+         * Give up on the session: close it
+         */
+        CLOSE
+    }
+
+    static final CloseStatus OVERFLOW = new CloseStatus(CloseReason.CloseCodes.TRY_AGAIN_LATER.getCode(),
+            "Outbound queue overflow");
+
+    private final WebSocketSession session;
+    private final Executor writer;
+    private final ScheduledExecutorService timer;
+    private final int maxMessages;
+    private final int maxBytes;
+    private final OverflowPolicy policy;
+    private final long coalesceWindow;
+    private final int coalesceBytes;
+    /**
+     * Container endpoint with batching enabled, or null if the session doesn't support it
+     */
+    private final RemoteEndpoint.Basic batchingRemote;
+    /**
+     * True if the session negotiated permessage-deflate
+     */
+    private final boolean compressed;
+    /**
+     * Deflate 1 in this many frames to estimate compression (0 for none)
+     */
+    private final int measureEvery;
+    /**
+     * Frames to write before the next one is measured: only used by the writer
+     */
+    private int untilMeasured;
+
+    /**
+     * Queued frames: guarded by this
+     */
+    private final ArrayDeque<OutboundFrame> frames = new ArrayDeque<>();
+    /**
+     * Size of queued frames: guarded by this
+     */
+    private int queuedBytes;
+    /**
+     * Once closed, nothing more is queued: guarded by this
+     */
+    private boolean closed;
+    /**
+     * The session fell too far behind (CLOSE policy): the writer closes it
+     */
+    private volatile boolean overflowed;
+    private final AtomicBoolean closeSent = new AtomicBoolean();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /**
+     * Writer waiting for the coalescing window to close
+     */
+    private volatile ScheduledFuture<?> delayed;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong bytesBeforeDeflate = new AtomicLong();
+    private final AtomicLong sampledBeforeDeflate = new AtomicLong();
+    private final AtomicLong sampledAfterDeflate = new AtomicLong();
+
+    /**
+     * @param session  Session to write to
+     * @param writer   Runs the writer
+     * @param timer    Starts the writer when the coalescing window closes (null to not wait)
+     * @param settings     Limits and coalescing settings
+     * @param measureEvery Deflate 1 in this many frames, if the session is compressed,
+     *                     to estimate what compression saves (0 to not estimate)
+     */
+    OutboundQueue(WebSocketSession session, Executor writer, ScheduledExecutorService timer,
+                  RoomSettings.Outbound settings, int measureEvery) {
+        this.session = session;
+        this.writer = writer;
+        this.timer = timer;
+        this.maxMessages = Math.max(1, settings.getMaxMessages());
+        this.maxBytes = Math.max(1, settings.getMaxBytes());
+        this.policy = settings.getOverflow();
+        this.coalesceWindow = Math.max(0, settings.getCoalesceWindowMs());
+        this.coalesceBytes = Math.max(1, settings.getCoalesceBytes());
+        this.batchingRemote = batchingRemote(session);
+        this.compressed = Deflation.isNegotiated(session);
+        this.measureEvery = Math.max(0, measureEvery);
+        this.untilMeasured = 1;
+    }
+
+    /**
+     * Queue a frame for this session, and make sure a writer is on its way.
+     *
+     * @param frame Frame to write
+     * @return false if the session is closed (or was closed because it fell too far behind)
+     */
+    boolean offer(OutboundFrame frame) {
+        boolean overflow = false;
+        int queued;
+
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            frames.addLast(frame);
+            queuedBytes += frame.getSize();
+
+            // A single frame larger than the size limit is still allowed through on its own
+            while (frames.size() > maxMessages || (queuedBytes > maxBytes && frames.size() > 1)) {
+                if (policy == OverflowPolicy.CLOSE) {
+                    dropped.addAndGet(frames.size());
+                    overflow = true;
+                    discard();
+                    break;
+                }
+                OutboundFrame victim = policy == OverflowPolicy.DROP_CHAT_FIRST ? removeOldestChat() : null;
+                if (victim == null) {
+                    victim = frames.pollFirst();
+                }
+                queuedBytes -= victim.getSize();
+                dropped.incrementAndGet();
+            }
+            queued = queuedBytes;
+        }
+
+        if (overflow) {
+            // Closing writes to the session: leave it to the writer, so it isn't
+            // done while a write is in progress, or on the caller's (room's) thread
+            overflowed = true;
+            schedule(Integer.MAX_VALUE);
+            return false;
+        }
+
+        schedule(queued);
+        return true;
+    }
+
+    /**
+     * Discard anything queued, and refuse further frames. Called when the session closes.
+     */
+    synchronized void close() {
+        discard();
+    }
+
+    /**
+     * @return number of frames waiting to be written
+     */
+    synchronized int getDepth() {
+        return frames.size();
+    }
+
+    /**
+     * @return size (in bytes, UTF-8) of the frames waiting to be written
+     */
+    synchronized int getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * @return number of frames written to the session
+     */
+    long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * @return number of frames discarded because the session fell behind
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of batches written (each is one writer wake-up, and one flush)
+     */
+    long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return true if messages to this session are compressed (permessage-deflate)
+     */
+    boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return bytes written to a compressed session, before compression
+     */
+    long getBytesBeforeDeflate() {
+        return bytesBeforeDeflate.get();
+    }
+
+    /**
+     * @return estimated bytes written to a compressed session, after compression:
+     * {@link #getBytesBeforeDeflate()} scaled by how well the measured frames compressed
+     * (0 if none were measured)
+     */
+    long getEstimatedBytesAfterDeflate() {
+        long sampled = sampledBeforeDeflate.get();
+        return sampled == 0 ? 0 : (long) ((double) bytesBeforeDeflate.get() * sampledAfterDeflate.get() / sampled);
+    }
+
+    /**
+     * Drain the queue: runs on a writer thread.
+     */
+    @Override
+    public void run() {
+        delayed = null;
+        try {
+            // Frames written since the last flush, and their size. Count frames, not
+            // bytes: a ping has no size, but with batching on the container holds
+            // control frames too, until the flush.
+            int unflushed = 0;
+            int batched = 0;
+            OutboundFrame frame;
+            while ((frame = poll()) != null) {
+                if (!write(frame)) {
+                    return;
+                }
+                unflushed++;
+                batched += frame.getSize();
+                if (batched >= coalesceBytes) {
+                    if (!flush()) {
+                        return;
+                    }
+                    unflushed = 0;
+                    batched = 0;
+                }
+            }
+            if (unflushed > 0) {
+                flush();
+            }
+            if (overflowed) {
+                closeOverflowed();
+                return;
+            }
+        } finally {
+            scheduled.set(false);
+        }
+
+        // Something may have been queued (or the session overflowed) after the
+        // last poll, but before the scheduled flag was cleared.
+        if (overflowed && !closeSent.get()) {
+            schedule(Integer.MAX_VALUE);
+        } else if (getDepth() > 0) {
+            schedule(getQueuedBytes());
+        }
+    }
+
+    /**
+     * Make sure a writer is on its way
+     *
+     * @param queued size of the frames currently queued
+     */
+    private void schedule(int queued) {
+        if (scheduled.compareAndSet(false, true)) {
+            if (coalesceWindow > 0 && timer != null && queued < coalesceBytes) {
+                // Give related messages a moment to arrive
+                try {
+                    delayed = timer.schedule(this::execute, coalesceWindow, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // shutting down
+                    scheduled.set(false);
+                }
+            } else {
+                execute();
+            }
+        } else if (queued >= coalesceBytes) {
+            // Enough has been gathered: don't wait for the window to close
+            ScheduledFuture<?> d = delayed;
+            if (d != null && d.cancel(false)) {
+                execute();
+            }
+        }
+    }
+
+    private void execute() {
+        try {
+            writer.execute(this);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            scheduled.set(false);
+        }
+    }
+
+    private synchronized OutboundFrame poll() {
+        OutboundFrame frame = frames.pollFirst();
+        if (frame != null) {
+            queuedBytes -= frame.getSize();
+        }
+        return frame;
+    }
+
+    private boolean write(OutboundFrame frame) {
+        if (!session.isOpen()) {
+            close();
+            return false;
+        }
+        try {
+            session.sendMessage(frame.getMessage());
+            sent.incrementAndGet();
+            if (compressed) {
+                bytesBeforeDeflate.addAndGet(frame.getSize());
+                if (measureEvery > 0 && --untilMeasured == 0) {
+                    untilMeasured = measureEvery;
+                    sampledBeforeDeflate.addAndGet(frame.getEncodedSize());
+                    sampledAfterDeflate.addAndGet(frame.getDeflatedSize());
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            failed(e);
+            return false;
+        }
+    }
+
+    private boolean flush() {
+        batches.incrementAndGet();
+        if (batchingRemote != null) {
+            try {
+                batchingRemote.flushBatch();
+            } catch (IOException e) {
+                failed(e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void closeOverflowed() {
+        if (closeSent.compareAndSet(false, true)) {
+            Log.log(Level.INFO, this, "WebSocketSession with Id (" + session.getId() + ") fell behind, closing");
+            SocketHandler.tryToClose(session, OVERFLOW);
+        }
+    }
+
+    private void failed(IOException e) {
+        Log.log(Level.INFO, this, "Exception occurred while sending message: " + e.getLocalizedMessage());
+        close();
+        SocketHandler.tryToClose(session, new CloseStatus(CloseReason.CloseCodes.UNEXPECTED_CONDITION.getCode(),
+                SocketHandler.trimReason(e.getLocalizedMessage())));
+    }
+
+    /**
+     * Turn on batching for sessions backed by a JSR-356 container (e.g. Tomcat):
+     * sent messages are then buffered until {@code flushBatch()} (or the buffer fills).
+     *
+     * @return the batching endpoint, or null if the session doesn't support it
+     */
+    private static RemoteEndpoint.Basic batchingRemote(WebSocketSession session) {
+        WebSocketSession s = WebSocketSessionDecorator.unwrap(session);
+        if (s instanceof NativeWebSocketSession) {
+            Session nativeSession = ((NativeWebSocketSession) s).getNativeSession(Session.class);
+            if (nativeSession != null) {
+                try {
+                    RemoteEndpoint.Basic remote = nativeSession.getBasicRemote();
+                    remote.setBatchingAllowed(true);
+                    return remote;
+                } catch (IOException | RuntimeException e) {
+                    Log.log(Level.FINE, OutboundQueue.class, "Unable to enable batching: " + e.getLocalizedMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Caller must hold the lock
+     */
+    private OutboundFrame removeOldestChat() {
+        for (Iterator<OutboundFrame> i = frames.iterator(); i.hasNext(); ) {
+            OutboundFrame f = i.next();
+            if (f.isChat()) {
+                i.remove();
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Caller must hold the lock
+     */
+    private void discard() {
+        closed = true;
+        frames.clear();
+        queuedBytes = 0;
+    }
+}
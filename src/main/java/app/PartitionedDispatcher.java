@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Runs room work off of the container's I/O threads.
+ * <p>
+ * Work is hashed by a key (e.g. the room id) onto a fixed set of
+ * lanes. Each lane is a single worker thread with its own bounded queue:
+ * work for different keys runs in parallel, while work for the same key
+ * always lands on the same lane and so runs in the order it was submitted.
+ * When a lane's queue is full, the submitting thread waits (which pushes
+ * back on the container reading more frames).
+ */
+class PartitionedDispatcher {
+
+    private final Lane[] lanes;
+
+    /**
+     * @param laneCount     Number of lanes, 0 or less for one per available processor
+     * @param laneCapacity  Maximum number of tasks waiting in each lane
+     * @param threadFactory Creates the worker thread for each lane
+     */
+    PartitionedDispatcher(int laneCount, int laneCapacity, ThreadFactory threadFactory) {
+        int n = laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors();
+        lanes = new Lane[n];
+        for (int i = 0; i < n; i++) {
+            lanes[i] = new Lane(Math.max(1, laneCapacity));
+            Thread t = threadFactory.newThread(lanes[i]);
+            lanes[i].thread = t;
+            t.start();
+        }
+    }
+
+    /**
+     * @param key Ordering key: tasks with equal keys run in submission order
+     * @return An executor that queues tasks on the lane for the key (waiting
+     * while it is full); a task refused because the caller was interrupted
+     * throws {@link RejectedExecutionException}
+     */
+    Executor executor(Object key) {
+        BlockingQueue<Runnable> queue = lanes[laneFor(key)].queue;
+        return task -> {
+            try {
+                queue.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        };
+    }
+
+    /**
+     * @param key Ordering key: tasks with equal keys run in submission order
+     * @return An executor that queues tasks on the lane for the key without
+     * waiting: a task is refused with {@link RejectedExecutionException} if
+     * the lane is full. For threads that must never block, such as the timer's.
+     */
+    Executor executorNoWait(Object key) {
+        BlockingQueue<Runnable> queue = lanes[laneFor(key)].queue;
+        return task -> {
+            if (!queue.offer(task)) {
+                throw new RejectedExecutionException("Lane full");
+            }
+        };
+    }
+
+    /**
+     * @param key Ordering key
+     * @return Index of the lane that tasks for the key run on
+     */
+    int laneFor(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return (h & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    /**
+     * @return number of lanes
+     */
+    int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * @param lane lane index
+     * @return number of tasks waiting in the lane
+     */
+    int getDepth(int lane) {
+        return lanes[lane].queue.size();
+    }
+
+    /**
+     * @param lane lane index
+     * @return number of tasks the lane has completed
+     */
+    long getProcessed(int lane) {
+        return lanes[lane].processed.get();
+    }
+
+    /**
+     * Stop all lanes. Queued tasks are abandoned.
+     */
+    void shutdown() {
+        for (Lane lane : lanes) {
+            lane.running = false;
+            lane.thread.interrupt();
+        }
+    }
+
+    private static class Lane implements Runnable {
+        final BlockingQueue<Runnable> queue;
+        final AtomicLong processed = new AtomicLong();
+        volatile boolean running = true;
+        Thread thread;
+
+        Lane(int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Runnable task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    // Whatever went wrong, the lane keeps going: the other keys on it
+                    // would otherwise never run again
+                    Log.log(Level.WARNING, this, "Exception processing message", t);
+                }
+                processed.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Who is in the room.
+ * <p>
+ * Players are tracked by userId. A player arrives with {@code roomHello}
+ * (or {@code roomJoin}, when reconnecting), and can be connected through
+ * more than one session at once: each hello or join adds a connection, and
+ * each {@code roomPart} (or a session closing) removes one. With no
+ * connections left, the player has parted: still nominally in the room, but
+ * not listening. {@code roomGoodbye} removes the player altogether.
+ * <p>
+ * Only players with a connection are present. Other messages from a player
+ * (e.g. chat) only record activity: a player who never said hello would
+ * never have a session close to tell the room they went away, and would
+ * otherwise keep the room occupied forever.
+ * <p>
+ * Each player's record is changed atomically (per key), and the number of
+ * present players is kept as a counter, so {@link #isEmpty()} and
+ * {@link #getPresentCount()} don't look at the map at all.
+ */
+class Presence {
+
+    /**
+     * How long to remember a player who parted and didn't come back
+     */
+    static final long PARTED_RETENTION_MS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * One player
+     */
+    static final class Occupant {
+        private final String userId;
+        private volatile String username;
+        private volatile boolean present;
+        private volatile int connections;
+        private volatile long lastActivity;
+
+        private Occupant(String userId) {
+            this.userId = userId;
+        }
+
+        String getUserId() {
+            return userId;
+        }
+
+        String getUsername() {
+            return username;
+        }
+
+        /**
+         * @return true if the player is present (false once they have parted)
+         */
+        boolean isPresent() {
+            return present;
+        }
+
+        /**
+         * @return number of sessions the player is connected through
+         */
+        int getConnections() {
+            return connections;
+        }
+
+        /**
+         * @return Time (in milliseconds) of the player's last message
+         */
+        long getLastActivity() {
+            return lastActivity;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Occupant> occupants = new ConcurrentHashMap<>();
+    private final AtomicInteger presentCount = new AtomicInteger();
+    private final LongSupplier clock;
+
+    /**
+     * @param clock Current time in milliseconds
+     */
+    Presence(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * A player arrived (roomHello) or reconnected (roomJoin) on a session.
+     */
+    void connected(String userId, String username) {
+        long now = clock.getAsLong();
+        occupants.compute(userId, (id, o) -> {
+            if (o == null) {
+                o = new Occupant(id);
+            }
+            if (username != null) {
+                o.username = username;
+            }
+            o.connections++;
+            o.lastActivity = now;
+            if (!o.present) {
+                o.present = true;
+                presentCount.incrementAndGet();
+            }
+            return o;
+        });
+    }
+
+    /**
+     * A message arrived from a player: recorded if the room knows them, but
+     * it doesn't make them present.
+     */
+    void touch(String userId, String username) {
+        long now = clock.getAsLong();
+        occupants.computeIfPresent(userId, (id, o) -> {
+            if (username != null) {
+                o.username = username;
+            }
+            o.lastActivity = now;
+            return o;
+        });
+    }
+
+    /**
+     * A player's session went away (roomPart, or the session closed).
+     */
+    void disconnected(String userId) {
+        long now = clock.getAsLong();
+        occupants.computeIfPresent(userId, (id, o) -> {
+            o.connections = Math.max(0, o.connections - 1);
+            if (o.connections == 0 && o.present) {
+                o.present = false;
+                o.lastActivity = now;
+                presentCount.decrementAndGet();
+            }
+            return o;
+        });
+    }
+
+    /**
+     * A player left the room (roomGoodbye).
+     */
+    void left(String userId) {
+        Occupant o = occupants.remove(userId);
+        if (o != null && o.present) {
+            presentCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Forget players who parted more than {@link #PARTED_RETENTION_MS} ago
+     */
+    void prune() {
+        long cutoff = clock.getAsLong() - PARTED_RETENTION_MS;
+        for (Map.Entry<String, Occupant> e : occupants.entrySet()) {
+            Occupant o = e.getValue();
+            if (!o.present && o.lastActivity < cutoff) {
+                occupants.computeIfPresent(e.getKey(), (id, current) ->
+                        !current.present && current.lastActivity < cutoff ? null : current);
+            }
+        }
+    }
+
+    /**
+     * @param userId Player id
+     * @return what is known about the player, or null
+     */
+    Occupant get(String userId) {
+        return occupants.get(userId);
+    }
+
+    /**
+     * @return true if no one is present
+     */
+    boolean isEmpty() {
+        return presentCount.get() == 0;
+    }
+
+    /**
+     * @return number of players present
+     */
+    int getPresentCount() {
+        return presentCount.get();
+    }
+
+    /**
+     * @return number of players known to the room, including those who parted
+     */
+    int size() {
+        return occupants.size();
+    }
+}
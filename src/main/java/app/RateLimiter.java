@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits how fast players can send messages to the room, using
+ * {@link TokenBucket}s keyed by session, and by userId (a player may
+ * use more than one session; a session may carry more than one player).
+ * <p>
+ * Session buckets live on the {@link SessionEntry}. Player buckets are
+ * kept here, and dropped by {@link #prune()} once they have refilled.
+ * <p>
+ * Each session also has a bucket for the rooms it causes to be created
+ * (any message for a room that isn't hosted yet creates it): see
+ * {@link RoomRegistry#get(String, java.util.function.BooleanSupplier)}.
+ */
+class RateLimiter {
+
+    private final RoomSettings.RateLimit settings;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, TokenBucket> users = new ConcurrentHashMap<>();
+
+    private final AtomicLong sessionThrottled = new AtomicLong();
+    private final AtomicLong userThrottled = new AtomicLong();
+    private final AtomicLong roomCreationThrottled = new AtomicLong();
+
+    /**
+     * @param settings Rates
+     * @param clock    Time in nanoseconds (e.g. {@code System::nanoTime})
+     */
+    RateLimiter(RoomSettings.RateLimit settings, LongSupplier clock) {
+        this.settings = settings;
+        this.clock = clock;
+    }
+
+    /**
+     * @return a bucket for a new session, or null if sessions are not limited
+     */
+    TokenBucket newSessionBucket() {
+        return settings.getSessionRate() > 0
+                ? new TokenBucket(settings.getSessionRate(), settings.getSessionBurst())
+                : null;
+    }
+
+    /**
+     * @return a bucket for the rooms a new session creates, or null if room creation is not limited
+     */
+    TokenBucket newRoomCreationBucket() {
+        return settings.getRoomCreationRate() > 0
+                ? new TokenBucket(settings.getRoomCreationRate(), settings.getRoomCreationBurst())
+                : null;
+    }
+
+    /**
+     * @param bucket Room creation bucket for the session the message arrived on (may be null)
+     * @return true if the session may cause another room to be created
+     */
+    boolean tryCreateRoom(TokenBucket bucket) {
+        if (bucket != null && !bucket.tryAcquire(clock.getAsLong())) {
+            roomCreationThrottled.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param session Bucket for the session the message arrived on (may be null)
+     * @param userId  Player that sent the message (may be null)
+     * @return true if the message may be handled, false if it should be rejected
+     */
+    boolean tryAcquire(TokenBucket session, String userId) {
+        long now = clock.getAsLong();
+        if (session != null && !session.tryAcquire(now)) {
+            sessionThrottled.incrementAndGet();
+            return false;
+        }
+        if (userId != null && settings.getUserRate() > 0) {
+            TokenBucket user = users.get(userId);
+            if (user == null) {
+                user = users.computeIfAbsent(userId,
+                        k -> new TokenBucket(settings.getUserRate(), settings.getUserBurst()));
+            }
+            if (!user.tryAcquire(now)) {
+                userThrottled.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forget players whose buckets have refilled: they would start over with a full bucket anyway.
+     */
+    void prune() {
+        long now = clock.getAsLong();
+        users.values().removeIf(b -> b.isFull(now));
+    }
+
+    /**
+     * @return number of messages rejected because a session sent too many
+     */
+    long getSessionThrottled() {
+        return sessionThrottled.get();
+    }
+
+    /**
+     * @return number of messages rejected because a player sent too many
+     */
+    long getUserThrottled() {
+        return userThrottled.get();
+    }
+
+    /**
+     * @return number of new rooms refused because a session created too many
+     */
+    long getRoomCreationThrottled() {
+        return roomCreationThrottled.get();
+    }
+
+    /**
+     * @return number of players being tracked
+     */
+    int getUserCount() {
+        return users.size();
+    }
+}
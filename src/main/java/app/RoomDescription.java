@@ -17,34 +17,54 @@
 package app;
 
 import javax.json.*;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 /**
  * This is how our room is described.
  * - Update attributes dynamically in {@link RoomImplementation} as the room is used
+ * <p>
+ * The description is held as an immutable {@link Snapshot}, published through
+ * a single atomic reference: each change copies the current snapshot, and
+ * swaps in the new one. Readers never lock, and a single (volatile) read with
+ * {@link #snapshot()} gives a consistent view of everything in it.
+ * <p>
+ * Every change bumps the description's version. The payload of the location
+ * message (sent on every hello, join and look) is rendered once per snapshot,
+ * and reused until the next change.
  *
  * @see RoomImplementation
  */
 public class RoomDescription {
 
-    private final JsonObject EMPTY_COMMANDS = Json.createObjectBuilder().build();
-    private final JsonArray EMPTY_INVENTORY = Json.createArrayBuilder().build();
-    private final Map<String, String> commands = new ConcurrentHashMap<>();
-    private final Set<String> items = new CopyOnWriteArraySet<>();
-    private String name = "defaultRoomNickName";
-    private String fullName = "A room with the default fullName still set in the source";
-    private String description = "A room that still has the default description set in the source";
-    private JsonObject commandObj = null;
-    private JsonArray itemObj = null;
+    private static final JsonBuilderFactory JSON = Json.createBuilderFactory(null);
+    private static final JsonObject EMPTY_COMMANDS = JSON.createObjectBuilder().build();
+    private static final JsonArray EMPTY_INVENTORY = JSON.createArrayBuilder().build();
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(new Snapshot(0,
+            "defaultRoomNickName",
+            "A room with the default fullName still set in the source",
+            "A room that still has the default description set in the source",
+            EMPTY_COMMANDS, Collections.emptyMap(), EMPTY_COMMANDS,
+            Collections.emptySet(), EMPTY_INVENTORY));
+
+    /**
+     * @return The current description: immutable, so consistent however long it is used for
+     */
+    public Snapshot snapshot() {
+        return current.get();
+    }
 
     /**
      * @return The room's short name
      */
     public String getName() {
-        return name;
+        return snapshot().getName();
     }
 
     /**
@@ -53,7 +73,8 @@ public class RoomDescription {
      */
     public void setName(String name) {
         if (name != null) {
-            this.name = name;
+            update(s -> new Snapshot(s.version + 1, name, s.fullName, s.description,
+                    s.exitObj, s.commands, s.commandObj, s.items, s.itemObj));
         }
     }
 
@@ -61,7 +82,7 @@ public class RoomDescription {
      * @return The room's long name
      */
     public String getFullName() {
-        return fullName;
+        return snapshot().getFullName();
     }
 
     /**
@@ -71,89 +92,232 @@ public class RoomDescription {
      */
     public void setFullName(String fullName) {
         if (fullName != null) {
-            this.fullName = fullName;
+            update(s -> new Snapshot(s.version + 1, s.name, fullName, s.description,
+                    s.exitObj, s.commands, s.commandObj, s.items, s.itemObj));
         }
     }
 
     public String getDescription() {
-        return description;
+        return snapshot().getDescription();
     }
 
     public void setDescription(String description) {
         if (description != null) {
-            this.description = description;
+            update(s -> new Snapshot(s.version + 1, s.name, s.fullName, description,
+                    s.exitObj, s.commands, s.commandObj, s.items, s.itemObj));
         }
     }
 
     /**
-     * Custom commands are optional. Build/cache/return a JsonObject listing
-     * commands and a description of what they do for use in location messages
+     * @return JsonObject describing each exit, by exit id. Never null.
+     */
+    public JsonObject getExits() {
+        return snapshot().getExits();
+    }
+
+    /**
+     * @param exits Description of each exit, by exit id
+     */
+    public void setExits(Map<String, String> exits) {
+        JsonObjectBuilder builder = JSON.createObjectBuilder();
+        exits.forEach(builder::add);
+        JsonObject exitObj = exits.isEmpty() ? EMPTY_COMMANDS : builder.build();
+        update(s -> new Snapshot(s.version + 1, s.name, s.fullName, s.description,
+                exitObj, s.commands, s.commandObj, s.items, s.itemObj));
+    }
+
+    /**
+     * Custom commands are optional.
      *
      * @return JsonObject containing custom room commands. Never null.
      */
     public JsonObject getCommands() {
-        JsonObject obj = commandObj;
-
-        if (commands.isEmpty()) {
-            return EMPTY_COMMANDS;
-        } else if (obj == null) {
-            JsonObjectBuilder newCommandObj = Json.createObjectBuilder();
-            commands.forEach(newCommandObj::add);
-            obj = commandObj = newCommandObj.build();
-        }
-
-        return obj;
+        return snapshot().getCommands();
     }
 
     public void addCommand(String command, String description) {
         if (description == null) {
             throw new IllegalArgumentException("description is required");
         }
-        commands.put(command, description);
-        commandObj = null;
+        update(s -> {
+            Map<String, String> commands = new LinkedHashMap<>(s.commands);
+            commands.put(command, description);
+            return s.withCommands(commands);
+        });
     }
 
     public void removeCommand(String command) {
-        commands.remove(command);
-        commandObj = null;
+        update(s -> {
+            Map<String, String> commands = new LinkedHashMap<>(s.commands);
+            commands.remove(command);
+            return s.withCommands(commands);
+        });
     }
 
     /**
-     * Room inventory objects are optional. Build/cache/return a JsonArray listing
-     * items in the room for use in location messages.
+     * Room inventory objects are optional.
      *
      * @return JsonArray containing room inventory. Never null
      */
     public JsonArray getInventory() {
-        JsonArray arr = itemObj;
-
-        if (items.isEmpty()) {
-            return EMPTY_INVENTORY;
-        } else if (arr == null) {
-            JsonArrayBuilder newItemArr = Json.createArrayBuilder();
-            items.forEach(newItemArr::add);
-            arr = itemObj = newItemArr.build();
-        }
-
-        return arr;
+        return snapshot().getInventory();
     }
 
     public void addItem(String itemName) {
-        items.add(itemName);
-        itemObj = null;
+        update(s -> {
+            Set<String> items = new LinkedHashSet<>(s.items);
+            items.add(itemName);
+            return s.withItems(items);
+        });
     }
 
     public void removeItem(String itemName) {
-        items.remove(itemName);
-        itemObj = null;
+        update(s -> {
+            Set<String> items = new LinkedHashSet<>(s.items);
+            items.remove(itemName);
+            return s.withItems(items);
+        });
+    }
+
+    /**
+     * @return Version of the description: changes whenever anything in it does
+     */
+    public long getVersion() {
+        return snapshot().getVersion();
+    }
+
+    /**
+     * @return JSON payload for a location message describing the room,
+     * rendered at most once per version
+     * @see Message#createLocationMessage(String, RoomDescription)
+     */
+    String getLocationPayload() {
+        return snapshot().getLocationPayload();
+    }
+
+    /**
+     * Copy-on-write: the change may be applied more than once if it races
+     * with another, so it must have no side effects.
+     */
+    private void update(UnaryOperator<Snapshot> change) {
+        current.updateAndGet(change);
     }
 
     @Override
     public String toString() {
-        return "name=" + name +
-                ", fullName=" + fullName +
-                ", description=" + description +
-                ", commands=" + commands +
-                ", items=" + items;
+        return snapshot().toString();
+    }
+
+    /**
+     * The room's description at one point in time. Immutable.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final String name;
+        private final String fullName;
+        private final String description;
+        private final JsonObject exitObj;
+        private final Map<String, String> commands;
+        private final JsonObject commandObj;
+        private final Set<String> items;
+        private final JsonArray itemObj;
+        /**
+         * Location payload: rendered when first needed (benign race, as String.hashCode)
+         */
+        private String location;
+
+        private Snapshot(long version, String name, String fullName, String description,
+                         JsonObject exitObj, Map<String, String> commands, JsonObject commandObj,
+                         Set<String> items, JsonArray itemObj) {
+            this.version = version;
+            this.name = name;
+            this.fullName = fullName;
+            this.description = description;
+            this.exitObj = exitObj;
+            this.commands = commands;
+            this.commandObj = commandObj;
+            this.items = items;
+            this.itemObj = itemObj;
+        }
+
+        private Snapshot withCommands(Map<String, String> commands) {
+            JsonObject obj = EMPTY_COMMANDS;
+            if (!commands.isEmpty()) {
+                JsonObjectBuilder builder = JSON.createObjectBuilder();
+                commands.forEach(builder::add);
+                obj = builder.build();
+            }
+            return new Snapshot(version + 1, name, fullName, description, exitObj,
+                    Collections.unmodifiableMap(commands), obj, items, itemObj);
+        }
+
+        private Snapshot withItems(Set<String> items) {
+            JsonArray arr = EMPTY_INVENTORY;
+            if (!items.isEmpty()) {
+                JsonArrayBuilder builder = JSON.createArrayBuilder();
+                items.forEach(builder::add);
+                arr = builder.build();
+            }
+            return new Snapshot(version + 1, name, fullName, description, exitObj,
+                    commands, commandObj, Collections.unmodifiableSet(items), arr);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getFullName() {
+            return fullName;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * @return JsonObject describing each exit, by exit id. Never null.
+         */
+        public JsonObject getExits() {
+            return exitObj;
+        }
+
+        /**
+         * @return JsonObject containing custom room commands. Never null.
+         */
+        public JsonObject getCommands() {
+            return commandObj;
+        }
+
+        /**
+         * @return JsonArray containing room inventory. Never null
+         */
+        public JsonArray getInventory() {
+            return itemObj;
+        }
+
+        /**
+         * @return JSON payload for a location message describing the room
+         */
+        String getLocationPayload() {
+            String result = location;
+            if (result == null) {
+                location = result = Message.renderLocation(this);
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "name=" + name +
+                    ", fullName=" + fullName +
+                    ", description=" + description +
+                    ", exits=" + exitObj +
+                    ", commands=" + commands +
+                    ", items=" + items;
+        }
     }
 }
@@ -16,24 +16,43 @@
 
 package app;
 
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import javax.json.JsonObject;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 /**
  * Here is where your room implementation lives. The WebSocket endpoint
  * is defined in {@link SocketHandler}, with {@link Message} as the text-based
  * payload being sent on the wire.
+ * <p>
+ * There is one instance per room id: the {@link RoomRegistry} asks Spring
+ * for a new one (this is a prototype bean) when the first message for a
+ * room arrives, and forgets it once the room has been empty for a while.
+ * Keep per-room state small: a process can host thousands of rooms.
+ * <p>
+ * A hosted room handles one message at a time (see {@link RoomMailbox}),
+ * so state that only the room itself touches can use plain collections.
  */
 @Component
+@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 public class RoomImplementation {
 
     public static final String LOOK_UNKNOWN = "It doesn't look interesting";
     public static final String UNKNOWN_COMMAND = "This room is a basic model. It doesn't understand `%s`";
+    public static final String DID_YOU_MEAN = "Did you mean `%s`?";
     public static final String UNSPECIFIED_DIRECTION = "You didn't say which way you wanted to go.";
     public static final String UNKNOWN_DIRECTION = "There isn't a door in that direction (%s)";
     public static final String GO_FORTH = "You head %s";
@@ -42,16 +61,98 @@ public class RoomImplementation {
     public static final String GOODBYE_ALL = "%s has gone";
     public static final String GOODBYE_USER = "Bye!";
 
+    /**
+     * Defaults, for a room created without Spring
+     */
+    private static final RoomSettings DEFAULTS = new RoomSettings();
+
     final RoomDescription roomDescription = new RoomDescription();
 
+    /**
+     * Id of this room, as sent by the mediator: null if not hosted by a {@link RoomRegistry}
+     */
+    private String roomId;
+
+    /**
+     * Work for this room: null if not hosted by a {@link RoomRegistry}
+     */
+    private RoomMailbox mailbox;
+
+    /**
+     * Timed work for this room: null if not hosted by a {@link RoomRegistry}
+     */
+    private RoomScheduler scheduler;
+
+    /**
+     * Bookmarks for this room's events and chat: created (with the room id) when first
+     * needed, and only used on the room's thread
+     */
+    private BookmarkGenerator bookmarks;
+
+    /**
+     * Commands, matched on the first word of a room message. Those with a description are
+     * advertised in the room description.
+     */
+    final CommandRegistry commands = new CommandRegistry(roomDescription);
+
+    @Inject
+    RoomSettings settings;
+
+    /**
+     * Time in milliseconds: the registry's (monotonic) clock once hosted
+     */
+    private LongSupplier clock = System::currentTimeMillis;
+
+    /**
+     * Who is in the room: timed with the room's clock
+     */
+    final Presence presence = new Presence(() -> clock.getAsLong());
+
+    /**
+     * Recent chat and events, for players who rejoin: set up by {@link #postConstruct()}
+     */
+    MessageHistory history;
+
+    /**
+     * The text above, compiled (and localized, see {@link RoomText}): set up by {@link #postConstruct()}
+     */
+    RoomText text;
+
+    /**
+     * Ways out of the room: set up by {@link #postConstruct()}
+     */
+    ExitTable exits;
+
+    /**
+     * Exit tables are immutable, and the same for every room with the same exit
+     * settings and text, so thousands of rooms can share one: by exit settings
+     * (as values, see {@link #exitsKey}) and text
+     */
+    private static final ConcurrentMap<List<Object>, ExitTable> SHARED_EXITS = new ConcurrentHashMap<>();
+
     @PostConstruct
     void postConstruct() {
-        roomDescription.addCommand("/ping", "Does this work?");
-        Log.log(Level.INFO, this, "Room initialized: {0}", roomDescription);
+        RoomSettings s = settings != null ? settings : DEFAULTS;
+        text = RoomText.forLocale(s.getText().getLocale());
+        exits = exitsFor(s.getExits(), text);
+        history = new MessageHistory(s.getHistory());
+        roomDescription.setExits(exits.getDescriptions());
+        registerCommands();
+        // "/nroth": did you mean "/go North"?
+        exits.getWords().forEach((word, exit) -> {
+            String verb = "/" + word;
+            if (word.length() > 2 && commands.find(verb, 0, verb.length()) == null) {
+                commands.addSuggestion(verb, "/go " + exit.getName());
+            }
+        });
+        Log.log(Level.FINE, this, "Room initialized: {0}", roomDescription);
     }
 
     @PreDestroy
     protected void preDestroy() {
+        if (scheduler != null) {
+            scheduler.close();
+        }
         Log.log(Level.FINE, this, "Room to be destroyed");
     }
 
@@ -59,11 +160,17 @@ public class RoomImplementation {
         // Fetch the userId and the username of the sender.
         // The username can change overtime, so always use the sent username when
         // constructing messages
-        JsonObject messageBody = message.getParsedBody();
-        String userId = messageBody.getString(Message.USER_ID);
-        String username = messageBody.getString(Message.USERNAME);
-
-        Log.log(Level.FINEST, this, "Received message from {0}({1}): {2}", username, userId, messageBody);
+        // Only these fields are needed, so they are pulled from the payload without
+        // building a JsonObject: use message.getParsedBody() to get at anything else.
+        Message.Fields fields = message.getFields();
+        String userId = fields.getUserId();
+        String username = fields.getUsername();
+
+        Log.log(Level.FINEST, this, "Received message from {0}({1}): {2}", username, userId, message);
+        if (userId == null || username == null) {
+            Log.log(Level.FINE, this, "Discarding message without a userId or username: {0}", message);
+            return;
+        }
 
         // Who doesn't love switch on strings in Java 8?
         switch (message.getTarget()) {
@@ -76,11 +183,13 @@ public class RoomImplementation {
                 //		}
                 // See RoomImplementationTest#testRoomHello*
 
+                presence.connected(userId, username);
+
                 // Send location message
                 handler.sendMessage(Message.createLocationMessage(userId, roomDescription));
 
                 // Say hello to a new person in the room
-                handler.sendMessage(Message.createBroadcastEvent(String.format(HELLO_ALL, username), userId, HELLO_USER));
+                broadcast(handler, () -> Message.createBroadcastEvent(bookmarks(), text.helloAll.render(username), userId, text.helloUser));
                 break;
 
             case roomJoin:
@@ -90,10 +199,16 @@ public class RoomImplementation {
                 //		    "version": 2
                 //		}
                 // See RoomImplementationTest#testRoomJoin
+                presence.connected(userId, username);
 
                 // Send location message
                 handler.sendMessage(Message.createLocationMessage(userId, roomDescription));
 
+                // Then anything missed since the last message the client saw
+                for (Message missed : history.since(fields.getBookmark())) {
+                    handler.sendToPlayer(userId, missed);
+                }
+
                 break;
 
             case roomGoodbye:
@@ -103,8 +218,11 @@ public class RoomImplementation {
                 //		}
                 // See RoomImplementationTest#testRoomGoodbye
 
+                presence.touch(userId, username);
+
                 // Say goodbye to person leaving the room
-                handler.sendMessage(Message.createBroadcastEvent(String.format(GOODBYE_ALL, username), userId, GOODBYE_USER));
+                broadcast(handler, () -> Message.createBroadcastEvent(bookmarks(), text.goodbyeAll.render(username), userId, text.goodbyeUser));
+                presence.left(userId);
                 break;
 
             case roomPart:
@@ -113,6 +231,7 @@ public class RoomImplementation {
                 //		    "userId": "<userId>"
                 //		}
                 // See RoomImplementationTest#testRoomPart
+                presence.disconnected(userId);
 
                 break;
 
@@ -122,7 +241,11 @@ public class RoomImplementation {
                 //		    "userId": "<userId>"
                 //		    "content": "<message>"
                 //		}
-                String content = messageBody.getString(Message.CONTENT);
+                presence.touch(userId, username);
+                String content = fields.getContent();
+                if (content == null || content.isEmpty()) {
+                    break;
+                }
 
                 if (content.charAt(0) == '/') {
                     // command
@@ -131,7 +254,7 @@ public class RoomImplementation {
                     // See RoomImplementationTest#testHandleChatMessage
 
                     // echo back the chat message
-                    handler.sendMessage(Message.createChatMessage(username, content));
+                    broadcast(handler, () -> Message.createChatMessage(bookmarks(), username, content));
                 }
                 break;
 
@@ -141,127 +264,184 @@ public class RoomImplementation {
         }
     }
 
-    private void processCommand(String userId, String username, String content, SocketHandler handler) {
-        // Work mostly off of lower case.
-        String contentToLower = content.toLowerCase(Locale.ENGLISH).trim();
+    /**
+     * Room commands: built-in commands aren't advertised, as every room supports them
+     */
+    private void registerCommands() {
+        commands.register("/go", null, this::go);
+        commands.register("/look", null, this::look, "/examine");
+        // Custom command! /ping is advertised in the room description
+        commands.register("/ping", "Does this work?", this::ping);
+    }
 
-        String firstWord;
-        String remainder;
+    private void processCommand(String userId, String username, String content, SocketHandler handler) {
+        if (!commands.dispatch(userId, username, content, handler)) {
+            String unknown = text.unknownCommand.render(content);
+            String suggestion = commands.suggest(content);
+            if (suggestion != null) {
+                unknown = unknown + " " + text.didYouMean.render(suggestion);
+            }
+            handler.sendMessage(Message.createSpecificEvent(bookmarks(), userId, unknown));
+        }
+    }
 
-        int firstSpace = contentToLower.indexOf(' '); // find the first space
-        if (firstSpace < 0 || contentToLower.length() <= firstSpace) {
-            firstWord = contentToLower;
-            remainder = null;
+    private void go(String userId, String username, String content, String argument, SocketHandler handler) {
+        // See RoomCommandsTest#testHandle*Go*
+        // Always process the /go command.
+        ExitTable.Exit exit = exits.find(argument);
+
+        if (exit == null) {
+            // Send error only to source session
+            if (argument == null) {
+                handler.sendMessage(Message.createSpecificEvent(bookmarks(), userId, text.unspecifiedDirection));
+            } else {
+                handler.sendMessage(Message.createSpecificEvent(bookmarks(), userId, text.unknownDirection.render(lower(argument))));
+            }
         } else {
-            firstWord = contentToLower.substring(0, firstSpace);
-            remainder = contentToLower.substring(firstSpace + 1);
+            // Allow the exit
+            handler.sendMessage(Message.createExitMessage(userId, exit.getId(), exit.getDeparture()));
         }
+    }
 
-        switch (firstWord) {
-            case "/go":
-                // See RoomCommandsTest#testHandle*Go*
-                // Always process the /go command.
-                String exitId = getExitId(remainder);
-
-                if (exitId == null) {
-                    // Send error only to source session
-                    if (remainder == null) {
-                        handler.sendMessage(Message.createSpecificEvent(userId, UNSPECIFIED_DIRECTION));
-                    } else {
-                        handler.sendMessage(Message.createSpecificEvent(userId, String.format(UNKNOWN_DIRECTION, remainder)));
-                    }
-                } else {
-                    // Allow the exit
-                    handler.sendMessage(Message.createExitMessage(userId, exitId, String.format(GO_FORTH, prettyDirection(exitId))));
-                }
-                break;
+    private void look(String userId, String username, String content, String argument, SocketHandler handler) {
+        // See RoomCommandsTest#testHandle*Look*
 
-            case "/look":
-            case "/examine":
-                // See RoomCommandsTest#testHandle*Look*
+        // Treat look and examine the same (though you could make them do different things)
+        String remainder = lower(argument);
+        if (remainder == null || remainder.contains("room")) {
+            // This is looking at or examining the entire room. Send the player location message,
+            // which includes the room description and inventory
+            handler.sendMessage(Message.createLocationMessage(userId, roomDescription));
+        } else {
+            handler.sendMessage(Message.createSpecificEvent(bookmarks(), userId, text.lookUnknown));
+        }
+    }
 
-                // Treat look and examine the same (though you could make them do different things)
-                if (remainder == null || remainder.contains("room")) {
-                    // This is looking at or examining the entire room. Send the player location message,
-                    // which includes the room description and inventory
-                    handler.sendMessage(Message.createLocationMessage(userId, roomDescription));
-                } else {
-                    handler.sendMessage(Message.createSpecificEvent(userId, LOOK_UNKNOWN));
-                }
-                break;
+    private void ping(String userId, String username, String content, String argument, SocketHandler handler) {
+        // See RoomCommandsTest#testHandlePing*
+        String remainder = lower(argument);
+        if (remainder == null) {
+            broadcast(handler, () -> Message.createBroadcastEvent(bookmarks(), "Ping! Pong sent to " + username, userId, "Ping! Pong!"));
+        } else {
+            broadcast(handler, () -> Message.createBroadcastEvent(bookmarks(), "Ping! Pong sent to " + username + ": " + remainder, userId, "Ping! Pong! " + remainder));
+        }
+    }
 
-            case "/ping":
-                // Custom command! /ping is added to the room description in the @PostConstruct method
-                // See RoomCommandsTest#testHandlePing*
+    /**
+     * Send a message to everyone in the room, and keep it for players who rejoin:
+     * if no one is there, the message isn't even built.
+     *
+     * @param message Builds the message
+     */
+    private void broadcast(SocketHandler handler, Supplier<Message> message) {
+        if (!presence.isEmpty()) {
+            Message m = message.get().fromRoom(roomId);
+            history.record(m);
+            handler.sendMessage(m);
+        }
+    }
 
-                if (remainder == null) {
-                    handler.sendMessage(Message.createBroadcastEvent("Ping! Pong sent to " + username, userId, "Ping! Pong!"));
-                } else {
-                    handler.sendMessage(Message.createBroadcastEvent("Ping! Pong sent to " + username + ": " + remainder, userId, "Ping! Pong! " + remainder));
-                }
+    /**
+     * A session closed without a player on it parting from this room: called on the
+     * room's thread (through its {@link RoomMailbox}), only for players who said
+     * hello to (or rejoined) this room on that session.
+     *
+     * @param userId Player that was connected through the session
+     */
+    public void sessionClosed(String userId) {
+        presence.disconnected(userId);
+    }
 
-                break;
+    /**
+     * Rooms built from equal exit settings (and the same text) share one table.
+     *
+     * @param config Exits by id
+     * @param text   Room text
+     * @return The exit table
+     * @throws IllegalArgumentException if a name or alias is used by more than one exit
+     */
+    static ExitTable exitsFor(Map<String, RoomSettings.Exit> config, RoomText text) {
+        List<Object> key = exitsKey(config, text);
+        ExitTable table = SHARED_EXITS.get(key);
+        if (table == null) {
+            table = SHARED_EXITS.computeIfAbsent(key, k -> ExitTable.of(config, text));
+        }
+        return table;
+    }
 
-            default:
-                handler.sendMessage(Message.createSpecificEvent(userId, String.format(UNKNOWN_COMMAND, content)));
-                break;
+    /**
+     * @return The exit settings as a value (a snapshot, so later changes to the settings don't
+     * change the key), with the text: RoomText instances are shared by locale
+     */
+    private static List<Object> exitsKey(Map<String, RoomSettings.Exit> config, RoomText text) {
+        List<Object> key = new ArrayList<>(1 + config.size() * 4);
+        key.add(text);
+        for (Map.Entry<String, RoomSettings.Exit> e : config.entrySet()) {
+            RoomSettings.Exit exit = e.getValue();
+            key.add(e.getKey());
+            key.add(exit.getName());
+            key.add(new ArrayList<>(exit.getAliases()));
+            key.add(exit.getDoor());
         }
+        return key;
     }
 
     /**
-     * Given a lower case string describing the direction someone wants
-     * to go (/go N, or /go North), filter or transform that into a recognizable
-     * id that can be used as an index into a known list of exits. Always valid
-     * are n, s, e, w. If the string doesn't match a known exit direction,
-     * return null.
-     *
-     * @param lowerDirection String read from the provided message
-     * @return exit id or null
+     * @return Bookmarks for this room's events and chat
      */
-    private String getExitId(String lowerDirection) {
-        if (lowerDirection == null) {
-            return null;
+    private BookmarkGenerator bookmarks() {
+        if (bookmarks == null) {
+            bookmarks = Message.newBookmarks(roomId);
         }
+        return bookmarks;
+    }
 
-        switch (lowerDirection) {
-            case "north":
-            case "south":
-            case "east":
-            case "west":
-                return lowerDirection.substring(0, 1);
+    /**
+     * @return Id of this room, or null if it isn't hosted by a {@link RoomRegistry}
+     */
+    String getRoomId() {
+        return roomId;
+    }
 
-            case "n":
-            case "s":
-            case "e":
-            case "w":
-                // Assume N/S/E/W are managed by the map service.
-                return lowerDirection;
+    void setRoomId(String roomId) {
+        this.roomId = roomId;
+    }
 
-            default:
-                // Otherwise unknown direction
-                return null;
-        }
+    /**
+     * @return Work waiting for this room, or null if it isn't hosted by a {@link RoomRegistry}
+     */
+    RoomMailbox getMailbox() {
+        return mailbox;
+    }
+
+    void setMailbox(RoomMailbox mailbox) {
+        this.mailbox = mailbox;
     }
 
     /**
-     * From the direction we used as a key
-     *
-     * @param exitId The exitId in lower case
-     * @return A pretty version of the direction for use in the exit message.
+     * @return Timed work for this room (tasks run like messages, on the room's
+     * thread), or null if it isn't hosted by a {@link RoomRegistry}
      */
-    private String prettyDirection(String exitId) {
-        switch (exitId) {
-            case "n":
-                return "North";
-            case "s":
-                return "South";
-            case "e":
-                return "East";
-            case "w":
-                return "West";
+    RoomScheduler getScheduler() {
+        return scheduler;
+    }
 
-            default:
-                return exitId;
-        }
+    void setScheduler(RoomScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return Who is in the room
+     */
+    Presence getPresence() {
+        return presence;
+    }
+
+    private static String lower(String argument) {
+        return argument == null ? null : argument.toLowerCase(Locale.ENGLISH);
     }
 }
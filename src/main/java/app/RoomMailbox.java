@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * Work waiting for one room: everything that reads or changes the room's
+ * state goes through here.
+ * <p>
+ * Anyone can queue work, but at most one thread runs it at a time, in the
+ * order it was queued (the same drain-on-demand scheme as {@link OutboundQueue}).
+ * Room logic is then single-threaded: state only the room touches doesn't
+ * need to be synchronized. The drain runs on the executor given for the
+ * room (see {@link PartitionedDispatcher#executor(Object)}), so a room
+ * always runs on the same lane thread.
+ * <p>
+ * Messages from players are refused once {@code room.dispatch.mailbox-capacity}
+ * are waiting, so a flood into one room can't take over the process. The
+ * room's own housekeeping (see {@link #put(Runnable)}) is never refused.
+ * <p>
+ * A drain runs at most {@code room.dispatch.drain-batch} tasks before giving
+ * its lane back: the rest go behind whatever else is waiting in the lane, so
+ * one busy room can't starve the other rooms that share it.
+ * <p>
+ * Starting a drain can wait for room in a full lane. Threads that must not
+ * wait (the timer's) use {@link #putNow(Runnable)} instead, which leaves the
+ * work queued if the drain can't be started yet.
+ */
+class RoomMailbox implements Runnable {
+
+    private final Executor executor;
+    private final Executor executorNoWait;
+    private final int capacity;
+    private final int drainBatch;
+    private final LongSupplier nanoTime;
+
+    /**
+     * Queued work: guarded by this
+     */
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong processingNanos = new AtomicLong();
+    private volatile long maxProcessingNanos;
+    private volatile int maxDepth;
+
+    /**
+     * @param executor Runs the drain
+     * @param capacity Maximum number of messages waiting
+     * @param nanoTime Clock for processing times
+     */
+    RoomMailbox(Executor executor, int capacity, LongSupplier nanoTime) {
+        this(executor, executor, capacity, nanoTime);
+    }
+
+    /**
+     * @param executor       Runs the drain
+     * @param executorNoWait Runs the drain, or refuses it (with
+     *                       {@link RejectedExecutionException}) rather than wait
+     * @param capacity       Maximum number of messages waiting
+     * @param nanoTime       Clock for processing times
+     */
+    RoomMailbox(Executor executor, Executor executorNoWait, int capacity, LongSupplier nanoTime) {
+        this(executor, executorNoWait, capacity, 0, nanoTime);
+    }
+
+    /**
+     * @param executor       Runs the drain
+     * @param executorNoWait Runs the drain, or refuses it (with
+     *                       {@link RejectedExecutionException}) rather than wait
+     * @param capacity       Maximum number of messages waiting
+     * @param drainBatch     Most tasks run before the drain gives its lane back
+     *                       (0 for no limit)
+     * @param nanoTime       Clock for processing times
+     */
+    RoomMailbox(Executor executor, Executor executorNoWait, int capacity, int drainBatch, LongSupplier nanoTime) {
+        this.executor = executor;
+        this.executorNoWait = executorNoWait;
+        this.capacity = Math.max(1, capacity);
+        this.drainBatch = drainBatch > 0 ? drainBatch : Integer.MAX_VALUE;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Queue work from a player, unless too much is already waiting
+     *
+     * @param task Work to do
+     * @return false if the mailbox is full (the task is dropped)
+     */
+    boolean offer(Runnable task) {
+        synchronized (this) {
+            if (tasks.size() >= capacity) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            add(task);
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * Queue the room's own work (e.g. a player's session closed), however
+     * much is waiting.
+     *
+     * @param task Work to do
+     */
+    void put(Runnable task) {
+        synchronized (this) {
+            add(task);
+        }
+        schedule();
+    }
+
+    /**
+     * Queue the room's own work, like {@link #put(Runnable)}, without ever
+     * waiting: if the drain can't be started now, the work stays queued and
+     * runs with the next drain.
+     *
+     * @param task Work to do
+     * @return false if no drain is running or starting: call {@link #kick()}
+     * later to make sure the work runs
+     */
+    boolean putNow(Runnable task) {
+        synchronized (this) {
+            add(task);
+        }
+        return kick();
+    }
+
+    /**
+     * Start a drain, if one isn't already running, without waiting
+     *
+     * @return false if the drain couldn't be started (yet)
+     */
+    boolean kick() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return true;
+        }
+        try {
+            executorNoWait.execute(this);
+            return true;
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);
+            return false;
+        }
+    }
+
+    /**
+     * @return number of tasks waiting
+     */
+    synchronized int getDepth() {
+        return tasks.size();
+    }
+
+    /**
+     * @return most tasks that have been waiting at once
+     */
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return number of tasks run
+     */
+    long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * @return number of messages refused because the mailbox was full
+     */
+    long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return total time spent running tasks, in nanoseconds
+     */
+    long getProcessingNanos() {
+        return processingNanos.get();
+    }
+
+    /**
+     * @return longest time spent running one task, in nanoseconds
+     */
+    long getMaxProcessingNanos() {
+        return maxProcessingNanos;
+    }
+
+    /**
+     * Run what is queued: on one thread at a time, and at most
+     * {@code drainBatch} tasks before making way for the rest of the lane.
+     */
+    @Override
+    public void run() {
+        do {
+            boolean yielded;
+            try {
+                yielded = drain();
+            } finally {
+                scheduled.set(false);
+            }
+            if (yielded && getDepth() > 0 && kick()) {
+                // The rest runs once the other work in the lane has had a turn
+                return;
+            }
+            // Something may have been queued after the last poll, but before the
+            // scheduled flag was cleared (or the lane is too full to queue behind):
+            // keep going here rather than waiting behind this thread's own lane.
+        } while (getDepth() > 0 && scheduled.compareAndSet(false, true));
+    }
+
+    /**
+     * @return true if the drain stopped because it ran {@code drainBatch} tasks
+     */
+    private boolean drain() {
+        Runnable task;
+        for (int i = 0; i < drainBatch; i++) {
+            if ((task = poll()) == null) {
+                return false;
+            }
+            long start = nanoTime.getAsLong();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                Log.log(Level.WARNING, this, "Exception processing message", t);
+            }
+            long elapsed = nanoTime.getAsLong() - start;
+            processingNanos.addAndGet(elapsed);
+            if (elapsed > maxProcessingNanos) {
+                maxProcessingNanos = elapsed;
+            }
+            processed.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Caller must hold the lock
+     */
+    private void add(Runnable task) {
+        tasks.addLast(task);
+        if (tasks.size() > maxDepth) {
+            maxDepth = tasks.size();
+        }
+    }
+
+    private synchronized Runnable poll() {
+        return tasks.pollFirst();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // shutting down
+                scheduled.set(false);
+            }
+        }
+    }
+}
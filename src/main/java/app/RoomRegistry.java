@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * The rooms hosted by this process, by room id.
+ * <p>
+ * A room is created (see {@link RoomImplementation}) when the first message
+ * for its id arrives, and forgotten once no one is in it, none of its timers
+ * are pending, and nothing has arrived for it for
+ * {@code room.hosting.idle-timeout-ms}. Idle rooms are found with the
+ * {@link TimerWheel}: each room has one pending check, which reschedules
+ * itself for the rest of the timeout if the room was used since.
+ * <p>
+ * Any client can name a new room, so creation is bounded: no more than
+ * {@code room.hosting.max-rooms} are hosted at once, and the caller can
+ * refuse to create one (e.g. a session creating rooms too fast).
+ * <p>
+ * Rooms are spread over shards, picked by the room id's hash, so a busy
+ * shard (or one being resized) doesn't hold up lookups for rooms in others.
+ * Looking up an existing room is a single map read.
+ * <p>
+ * Each room is given its own {@link RoomMailbox}: work for the room should
+ * be queued there, rather than calling it directly. Its timers
+ * ({@link RoomScheduler}) share the registry's wheel.
+ */
+class RoomRegistry {
+
+    /**
+     * A hosted room, with when it was last used
+     */
+    private static final class Hosted {
+        final RoomImplementation room;
+        /**
+         * Guarded by this holder's lock, with {@link #evicted}
+         */
+        long lastUsed;
+        /**
+         * Set (in this holder's lock) as the room is removed: a lookup that sees it must look again
+         */
+        boolean evicted;
+
+        Hosted(RoomImplementation room, long now) {
+            this.room = room;
+            this.lastUsed = now;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Hosted>[] shards;
+    private final int mask;
+    private final Function<String, RoomImplementation> factory;
+    private final Function<String, RoomMailbox> mailboxes;
+    private final TimerWheel wheel;
+    private final LongSupplier clock;
+    private final long idleTimeout;
+    private final int maxRooms;
+
+    /**
+     * Rooms hosted, or being created: kept separately so the limit is exact
+     */
+    private final AtomicInteger hosted = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+
+    /**
+     * @param factory   Creates (and initializes) the room for a room id
+     * @param mailboxes Creates the mailbox for a room id
+     * @param settings  Idle timeout, number of shards and room limit
+     * @param wheel     Schedules idle checks (null to never evict)
+     * @param clock     Current time in milliseconds
+     */
+    RoomRegistry(Function<String, RoomImplementation> factory, Function<String, RoomMailbox> mailboxes,
+                 RoomSettings.Hosting settings, TimerWheel wheel, LongSupplier clock) {
+        int n = 1;
+        while (n < settings.getShards()) {
+            n <<= 1;
+        }
+        // No generic array creation: the array is private, and only ever holds ConcurrentHashMap<String, Hosted>
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ConcurrentHashMap<String, Hosted>[] shards = new ConcurrentHashMap[n];
+        this.shards = shards;
+        for (int i = 0; i < n; i++) {
+            shards[i] = new ConcurrentHashMap<>();
+        }
+        this.mask = n - 1;
+        this.factory = factory;
+        this.mailboxes = mailboxes;
+        this.wheel = wheel;
+        this.clock = clock;
+        this.idleTimeout = settings.getIdleTimeoutMs();
+        this.maxRooms = Math.max(0, settings.getMaxRooms());
+    }
+
+    /**
+     * @param roomId Room id
+     * @return The room, created if this is the first time it is needed: null if
+     * it isn't hosted, and {@code room.hosting.max-rooms} already are
+     */
+    RoomImplementation get(String roomId) {
+        return get(roomId, () -> true);
+    }
+
+    /**
+     * @param roomId    Room id
+     * @param mayCreate Asked (only) if the room has to be created: false to refuse
+     * @return The room, created if this is the first time it is needed: null if
+     * it isn't hosted, and either {@code room.hosting.max-rooms} already are,
+     * or mayCreate refused
+     */
+    RoomImplementation get(String roomId, BooleanSupplier mayCreate) {
+        ConcurrentHashMap<String, Hosted> shard = shard(roomId);
+        while (true) {
+            Hosted h = shard.get(roomId);
+            if (h == null) {
+                h = shard.computeIfAbsent(roomId, id -> tryCreate(id, mayCreate));
+                if (h == null) {
+                    refused.incrementAndGet();
+                    return null;
+                }
+            }
+            // The idle check reads lastUsed and sets evicted under the same lock, so either
+            // this sees the eviction (and retries with a new room), or the check sees this use.
+            synchronized (h) {
+                if (!h.evicted) {
+                    h.lastUsed = clock.getAsLong();
+                    return h.room;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param roomId Room id
+     * @return The room, or null if it isn't hosted (it is not created)
+     */
+    RoomImplementation peek(String roomId) {
+        Hosted h = shard(roomId).get(roomId);
+        return h == null ? null : h.room;
+    }
+
+    /**
+     * @param action Called for every hosted room
+     */
+    void forEach(Consumer<RoomImplementation> action) {
+        for (ConcurrentHashMap<String, Hosted> shard : shards) {
+            shard.values().forEach(h -> action.accept(h.room));
+        }
+    }
+
+    /**
+     * @return number of rooms hosted
+     */
+    int size() {
+        int size = 0;
+        for (ConcurrentHashMap<String, Hosted> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return number of rooms created
+     */
+    long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * @return number of rooms forgotten for being idle
+     */
+    long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * @return number of times a new room wasn't created (too many rooms, or refused by the caller)
+     */
+    long getRefused() {
+        return refused.get();
+    }
+
+    private ConcurrentHashMap<String, Hosted> shard(String roomId) {
+        int h = roomId.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * In the shard's lock, for a room that isn't hosted
+     *
+     * @return The new room, or null if it may not be created
+     */
+    private Hosted tryCreate(String roomId, BooleanSupplier mayCreate) {
+        if (maxRooms > 0 && hosted.get() >= maxRooms) {
+            return null;
+        }
+        if (!mayCreate.getAsBoolean()) {
+            return null;
+        }
+        if (hosted.incrementAndGet() > maxRooms && maxRooms > 0) {
+            // Another shard took the last place
+            hosted.decrementAndGet();
+            return null;
+        }
+        try {
+            return create(roomId);
+        } catch (RuntimeException | Error e) {
+            hosted.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private Hosted create(String roomId) {
+        RoomImplementation room = factory.apply(roomId);
+        room.setRoomId(roomId);
+        RoomMailbox mailbox = mailboxes.apply(roomId);
+        room.setMailbox(mailbox);
+        room.setScheduler(new RoomScheduler(wheel, mailbox));
+        room.setClock(clock);
+        Hosted h = new Hosted(room, clock.getAsLong());
+        created.incrementAndGet();
+        if (wheel != null && idleTimeout > 0) {
+            wheel.schedule(() -> check(roomId, h), idleTimeout);
+        }
+        Log.log(Level.FINE, this, "Room {0} created", roomId);
+        return h;
+    }
+
+    private void check(String roomId, Hosted h) {
+        long[] next = {0};
+        shard(roomId).computeIfPresent(roomId, (id, current) -> {
+            if (current != h) {
+                return current;
+            }
+            synchronized (h) {
+                long idle = clock.getAsLong() - h.lastUsed;
+                if (idle < idleTimeout) {
+                    next[0] = idleTimeout - idle;
+                    return current;
+                }
+                if (h.room.getPresence().isEmpty() && h.room.getMailbox().getDepth() == 0
+                        && h.room.getScheduler().getPending() == 0) {
+                    h.evicted = true;
+                    return null;
+                }
+                // Occupied, or waiting on its own timers (e.g. a respawn): look again later
+                next[0] = idleTimeout;
+                return current;
+            }
+        });
+
+        if (h.evicted) {
+            hosted.decrementAndGet();
+            evicted.incrementAndGet();
+            h.room.preDestroy();
+            Log.log(Level.FINE, this, "Room {0} evicted", roomId);
+        } else if (next[0] > 0) {
+            wheel.schedule(() -> check(roomId, h), next[0]);
+        }
+    }
+}
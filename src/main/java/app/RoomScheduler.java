@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Timed work for one room: delayed replies, timed descriptions, items
+ * that come back after a while, ...
+ * <p>
+ * Timers are kept on the shared {@link TimerWheel}, so scheduling and
+ * cancelling cost the same however many are pending. When a timer
+ * expires its task is queued in the room's {@link RoomMailbox}, so it runs
+ * on the room's thread, in order with the room's messages, and can touch
+ * room state like any message handler. The wheel's thread never waits on
+ * the room: if the room's lane is full, the task waits in the mailbox and
+ * the drain is tried again on the next tick.
+ * <p>
+ * A timer cancelled after it expired, but before its task ran, doesn't run.
+ * A room with pending timers isn't forgotten (see {@link RoomRegistry}): a
+ * repeating timer keeps its room hosted until it is cancelled.
+ */
+class RoomScheduler {
+
+    private final TimerWheel wheel;
+    private final RoomMailbox mailbox;
+    /**
+     * Timers that haven't run (or been cancelled) yet
+     */
+    private final Set<Timer> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * @param wheel   Keeps track of time (and its clock is the room's clock)
+     * @param mailbox Where expired tasks are queued
+     */
+    RoomScheduler(TimerWheel wheel, RoomMailbox mailbox) {
+        this.wheel = wheel;
+        this.mailbox = mailbox;
+    }
+
+    /**
+     * @param task    Task to run on the room's thread
+     * @param delayMs Delay, in milliseconds
+     * @return a handle that can be used to cancel the timer
+     */
+    Timer schedule(Runnable task, long delayMs) {
+        return start(new Timer(task, 0), delayMs);
+    }
+
+    /**
+     * Run a task every {@code periodMs}, until cancelled. The next run is
+     * timed from the end of the last one, so a busy room doesn't fall behind
+     * and then run several in a row.
+     *
+     * @param task     Task to run on the room's thread
+     * @param periodMs Time between runs, in milliseconds
+     * @return a handle that can be used to cancel the timer
+     */
+    Timer scheduleRepeating(Runnable task, long periodMs) {
+        return start(new Timer(task, Math.max(1, periodMs)), periodMs);
+    }
+
+    /**
+     * Cancel every pending timer, and refuse new ones: the room is going away
+     */
+    void close() {
+        closed = true;
+        for (Timer t : pending) {
+            t.cancel();
+        }
+    }
+
+    /**
+     * @return number of timers waiting to run
+     */
+    int getPending() {
+        return pending.size();
+    }
+
+    private Timer start(Timer timer, long delayMs) {
+        if (closed) {
+            timer.cancelled = true;
+            return timer;
+        }
+        pending.add(timer);
+        timer.timeout = wheel.schedule(timer::expired, delayMs);
+        if (closed) {
+            // close() may have missed it
+            timer.cancel();
+        }
+        return timer;
+    }
+
+    /**
+     * A scheduled room task
+     */
+    final class Timer {
+        private final Runnable task;
+        /**
+         * Time between runs, or 0 to run once
+         */
+        private final long period;
+        private volatile TimerWheel.Timeout timeout;
+        private volatile boolean cancelled;
+
+        private Timer(Runnable task, long period) {
+            this.task = task;
+            this.period = period;
+        }
+
+        /**
+         * Cancel the timer: the task will not run again (and not at all, unless it already has)
+         */
+        void cancel() {
+            cancelled = true;
+            pending.remove(this);
+            TimerWheel.Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * On the wheel's thread: hand the task to the room
+         */
+        private void expired() {
+            if (!cancelled && !mailbox.putNow(this::run)) {
+                retry();
+            }
+        }
+
+        /**
+         * On the wheel's thread: the task is queued, but the room's drain
+         * couldn't be started: try again next tick
+         */
+        private void retry() {
+            wheel.schedule(() -> {
+                if (!mailbox.kick()) {
+                    retry();
+                }
+            }, wheel.getTick());
+        }
+
+        /**
+         * On the room's thread
+         */
+        private void run() {
+            if (cancelled) {
+                return;
+            }
+            if (period == 0) {
+                pending.remove(this);
+                task.run();
+            } else {
+                task.run();
+                if (!cancelled && !closed) {
+                    timeout = wheel.schedule(this::expired, period);
+                }
+            }
+        }
+    }
+}
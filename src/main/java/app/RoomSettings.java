@@ -0,0 +1,534 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tunables for the room, bound from {@code room.*} properties
+ * (see application.properties). Defaults are set here, so an instance
+ * created with {@code new} is usable without Spring.
+ */
+@Component
+@ConfigurationProperties(prefix = "room")
+public class RoomSettings {
+
+    private final Outbound outbound = new Outbound();
+    private final Dispatch dispatch = new Dispatch();
+    private final Threads threads = new Threads();
+    private final Compression compression = new Compression();
+    private final RateLimit rateLimit = new RateLimit();
+    private final Heartbeat heartbeat = new Heartbeat();
+    private final Text text = new Text();
+    private final History history = new History();
+    private final Hosting hosting = new Hosting();
+    private final Map<String, Exit> exits = new LinkedHashMap<>();
+
+    public RoomSettings() {
+        exits.put("n", new Exit("North", "north"));
+        exits.put("s", new Exit("South", "south"));
+        exits.put("e", new Exit("East", "east"));
+        exits.put("w", new Exit("West", "west"));
+    }
+
+    public Outbound getOutbound() {
+        return outbound;
+    }
+
+    public Dispatch getDispatch() {
+        return dispatch;
+    }
+
+    public Threads getThreads() {
+        return threads;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
+    public Heartbeat getHeartbeat() {
+        return heartbeat;
+    }
+
+    public Text getText() {
+        return text;
+    }
+
+    public History getHistory() {
+        return history;
+    }
+
+    public Hosting getHosting() {
+        return hosting;
+    }
+
+    /**
+     * Rooms hosted by this process: one per room id, created when first needed
+     *
+     * @see RoomRegistry
+     */
+    public static class Hosting {
+        /**
+         * Forget a room when no one has been in it, and nothing has arrived for it, for this long
+         */
+        private long idleTimeoutMs = 600000;
+        /**
+         * Shards of the room registry (rounded up to a power of two)
+         */
+        private int shards = 16;
+        /**
+         * Most rooms hosted at once: messages for a new room are refused beyond this. 0 for no limit
+         */
+        private int maxRooms = 10000;
+
+        public long getIdleTimeoutMs() {
+            return idleTimeoutMs;
+        }
+
+        public void setIdleTimeoutMs(long idleTimeoutMs) {
+            this.idleTimeoutMs = idleTimeoutMs;
+        }
+
+        public int getShards() {
+            return shards;
+        }
+
+        public void setShards(int shards) {
+            this.shards = shards;
+        }
+
+        public int getMaxRooms() {
+            return maxRooms;
+        }
+
+        public void setMaxRooms(int maxRooms) {
+            this.maxRooms = maxRooms;
+        }
+    }
+
+    /**
+     * Recent chat and room events, replayed to players who rejoin
+     *
+     * @see MessageHistory
+     */
+    public static class History {
+        /**
+         * Number of messages kept (rounded up to a power of two): 0 to keep none
+         */
+        private int size = 64;
+        /**
+         * Larger messages aren't kept
+         */
+        private int maxMessageBytes = 4096;
+
+        public int getSize() {
+            return size;
+        }
+
+        public void setSize(int size) {
+            this.size = size;
+        }
+
+        public int getMaxMessageBytes() {
+            return maxMessageBytes;
+        }
+
+        public void setMaxMessageBytes(int maxMessageBytes) {
+            this.maxMessageBytes = maxMessageBytes;
+        }
+    }
+
+    /**
+     * @return Exits from the room, by exit id (as the map service knows them)
+     */
+    public Map<String, Exit> getExits() {
+        return exits;
+    }
+
+    /**
+     * A way out of the room, e.g. {@code room.exits.u.name=Up}
+     *
+     * @see ExitTable
+     */
+    public static class Exit {
+        /**
+         * Pretty name, used when the player leaves
+         */
+        private String name;
+        /**
+         * Other words a player can use with /go (the exit id and name always work)
+         */
+        private List<String> aliases = new ArrayList<>();
+        /**
+         * Description of the door, shown with the room: the name is shown if there isn't one
+         */
+        private String door;
+
+        public Exit() {
+        }
+
+        Exit(String name, String... aliases) {
+            this.name = name;
+            this.aliases.addAll(Arrays.asList(aliases));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public List<String> getAliases() {
+            return aliases;
+        }
+
+        public void setAliases(List<String> aliases) {
+            this.aliases = aliases;
+        }
+
+        public String getDoor() {
+            return door;
+        }
+
+        public void setDoor(String door) {
+            this.door = door;
+        }
+    }
+
+    /**
+     * Text the room sends to players
+     *
+     * @see RoomText
+     */
+    public static class Text {
+        /**
+         * Language tag (e.g. fr) of the room-text bundle to use: empty for the built-in text
+         */
+        private String locale = "";
+
+        public String getLocale() {
+            return locale;
+        }
+
+        public void setLocale(String locale) {
+            this.locale = locale;
+        }
+    }
+
+    /**
+     * Pings for quiet sessions, and closing idle ones
+     *
+     * @see IdleReaper
+     */
+    public static class Heartbeat {
+        /**
+         * Ping a session after it has been quiet for this long
+         */
+        private long pingAfterMs = 30000;
+        /**
+         * Close a session after it has been quiet (not even a pong) for this long: 0 to never close
+         */
+        private long idleTimeoutMs = 90000;
+
+        public long getPingAfterMs() {
+            return pingAfterMs;
+        }
+
+        public void setPingAfterMs(long pingAfterMs) {
+            this.pingAfterMs = pingAfterMs;
+        }
+
+        public long getIdleTimeoutMs() {
+            return idleTimeoutMs;
+        }
+
+        public void setIdleTimeoutMs(long idleTimeoutMs) {
+            this.idleTimeoutMs = idleTimeoutMs;
+        }
+    }
+
+    /**
+     * Inbound rate limits for room commands and chat
+     *
+     * @see RateLimiter
+     */
+    public static class RateLimit {
+        /**
+         * Messages per second allowed from one session: 0 for no limit
+         */
+        private double sessionRate = 20;
+        /**
+         * Messages a session may send at once before the rate applies
+         */
+        private int sessionBurst = 40;
+        /**
+         * Messages per second allowed from one player: 0 for no limit
+         */
+        private double userRate = 10;
+        /**
+         * Messages a player may send at once before the rate applies
+         */
+        private int userBurst = 20;
+        /**
+         * New rooms per second that one session may cause to be created: 0 for no limit
+         */
+        private double roomCreationRate = 2;
+        /**
+         * New rooms a session may cause to be created at once before the rate applies
+         */
+        private int roomCreationBurst = 20;
+
+        public double getSessionRate() {
+            return sessionRate;
+        }
+
+        public void setSessionRate(double sessionRate) {
+            this.sessionRate = sessionRate;
+        }
+
+        public int getSessionBurst() {
+            return sessionBurst;
+        }
+
+        public void setSessionBurst(int sessionBurst) {
+            this.sessionBurst = sessionBurst;
+        }
+
+        public double getUserRate() {
+            return userRate;
+        }
+
+        public void setUserRate(double userRate) {
+            this.userRate = userRate;
+        }
+
+        public int getUserBurst() {
+            return userBurst;
+        }
+
+        public void setUserBurst(int userBurst) {
+            this.userBurst = userBurst;
+        }
+
+        public double getRoomCreationRate() {
+            return roomCreationRate;
+        }
+
+        public void setRoomCreationRate(double roomCreationRate) {
+            this.roomCreationRate = roomCreationRate;
+        }
+
+        public int getRoomCreationBurst() {
+            return roomCreationBurst;
+        }
+
+        public void setRoomCreationBurst(int roomCreationBurst) {
+            this.roomCreationBurst = roomCreationBurst;
+        }
+    }
+
+    /**
+     * WebSocket per-message compression
+     *
+     * @see CompressionHandshakeHandler
+     */
+    public static class Compression {
+        /**
+         * Accept permessage-deflate when the client asks for it
+         */
+        private boolean enabled = true;
+        /**
+         * Estimate how well messages compress from 1 in this many frames sent to each
+         * compressed session (each is deflated again, on the writer thread), 0 to not estimate
+         */
+        private int measureEvery = 16;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMeasureEvery() {
+            return measureEvery;
+        }
+
+        public void setMeasureEvery(int measureEvery) {
+            this.measureEvery = measureEvery;
+        }
+    }
+
+    /**
+     * Threads used for room work
+     *
+     * @see RoomThreads
+     */
+    public static class Threads {
+        /**
+         * Use virtual threads for dispatch lanes and session writers (Java 21+)
+         */
+        private boolean virtual = false;
+
+        public boolean isVirtual() {
+            return virtual;
+        }
+
+        public void setVirtual(boolean virtual) {
+            this.virtual = virtual;
+        }
+    }
+
+    /**
+     * Inbound message processing
+     *
+     * @see PartitionedDispatcher
+     */
+    public static class Dispatch {
+        /**
+         * Number of worker lanes: 0 for one per available processor
+         */
+        private int lanes = 0;
+        /**
+         * Maximum number of messages waiting in each lane
+         */
+        private int laneCapacity = 1024;
+        /**
+         * Maximum number of messages waiting for each room
+         */
+        private int mailboxCapacity = 256;
+        /**
+         * Most messages a room handles before letting other rooms on its lane run (0 for no limit)
+         */
+        private int drainBatch = 64;
+
+        public int getLanes() {
+            return lanes;
+        }
+
+        public void setLanes(int lanes) {
+            this.lanes = lanes;
+        }
+
+        public int getLaneCapacity() {
+            return laneCapacity;
+        }
+
+        public void setLaneCapacity(int laneCapacity) {
+            this.laneCapacity = laneCapacity;
+        }
+
+        public int getMailboxCapacity() {
+            return mailboxCapacity;
+        }
+
+        public void setMailboxCapacity(int mailboxCapacity) {
+            this.mailboxCapacity = mailboxCapacity;
+        }
+
+        public int getDrainBatch() {
+            return drainBatch;
+        }
+
+        public void setDrainBatch(int drainBatch) {
+            this.drainBatch = drainBatch;
+        }
+    }
+
+    /**
+     * Per-session outbound queue
+     *
+     * @see OutboundQueue
+     */
+    public static class Outbound {
+        /**
+         * Maximum number of messages waiting to be written to one session
+         */
+        private int maxMessages = 256;
+        /**
+         * Maximum number of bytes (UTF-8) waiting to be written to one session
+         */
+        private int maxBytes = 1024 * 1024;
+        /**
+         * What to do when a session falls behind
+         */
+        private OutboundQueue.OverflowPolicy overflow = OutboundQueue.OverflowPolicy.DROP_OLDEST;
+        /**
+         * How long to gather messages for a session before writing them (0 to write right away)
+         */
+        private long coalesceWindowMs = 2;
+        /**
+         * Write (and flush) as soon as this many bytes (UTF-8) have been gathered
+         */
+        private int coalesceBytes = 8192;
+
+        public int getMaxMessages() {
+            return maxMessages;
+        }
+
+        public void setMaxMessages(int maxMessages) {
+            this.maxMessages = maxMessages;
+        }
+
+        public int getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(int maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        public OutboundQueue.OverflowPolicy getOverflow() {
+            return overflow;
+        }
+
+        public void setOverflow(OutboundQueue.OverflowPolicy overflow) {
+            this.overflow = overflow;
+        }
+
+        public long getCoalesceWindowMs() {
+            return coalesceWindowMs;
+        }
+
+        public void setCoalesceWindowMs(long coalesceWindowMs) {
+            this.coalesceWindowMs = coalesceWindowMs;
+        }
+
+        public int getCoalesceBytes() {
+            return coalesceBytes;
+        }
+
+        public void setCoalesceBytes(int coalesceBytes) {
+            this.coalesceBytes = coalesceBytes;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.Locale;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+/**
+ * Text the room sends to players, with the templates compiled up front.
+ * <p>
+ * Defaults are the constants in {@link RoomImplementation}. A room can be
+ * localized by adding {@code room-text_<locale>.properties} to the classpath
+ * (keys as below), and setting {@code room.text.locale}: any key not in the
+ * bundle keeps its default.
+ */
+final class RoomText {
+
+    static final String BUNDLE = "room-text";
+
+    private static final ConcurrentMap<Locale, RoomText> CACHE = new ConcurrentHashMap<>();
+
+    final MessageTemplate helloAll;
+    final String helloUser;
+    final MessageTemplate goodbyeAll;
+    final String goodbyeUser;
+    final MessageTemplate unknownCommand;
+    final MessageTemplate didYouMean;
+    final String unspecifiedDirection;
+    final MessageTemplate unknownDirection;
+    final MessageTemplate goForth;
+    final String lookUnknown;
+
+    private RoomText(ResourceBundle bundle) {
+        helloAll = MessageTemplate.compile(text(bundle, "hello.all", RoomImplementation.HELLO_ALL));
+        helloUser = text(bundle, "hello.user", RoomImplementation.HELLO_USER);
+        goodbyeAll = MessageTemplate.compile(text(bundle, "goodbye.all", RoomImplementation.GOODBYE_ALL));
+        goodbyeUser = text(bundle, "goodbye.user", RoomImplementation.GOODBYE_USER);
+        unknownCommand = MessageTemplate.compile(text(bundle, "unknown.command", RoomImplementation.UNKNOWN_COMMAND));
+        didYouMean = MessageTemplate.compile(text(bundle, "did.you.mean", RoomImplementation.DID_YOU_MEAN));
+        unspecifiedDirection = text(bundle, "unspecified.direction", RoomImplementation.UNSPECIFIED_DIRECTION);
+        unknownDirection = MessageTemplate.compile(text(bundle, "unknown.direction", RoomImplementation.UNKNOWN_DIRECTION));
+        goForth = MessageTemplate.compile(text(bundle, "go.forth", RoomImplementation.GO_FORTH));
+        lookUnknown = text(bundle, "look.unknown", RoomImplementation.LOOK_UNKNOWN);
+    }
+
+    /**
+     * @param locale Locale (or language tag) of the room's text: null or empty for the defaults
+     * @return Room text for that locale
+     */
+    static RoomText forLocale(String locale) {
+        return forLocale(locale == null || locale.isEmpty() ? Locale.ROOT : Locale.forLanguageTag(locale));
+    }
+
+    /**
+     * @param locale Locale of the room's text
+     * @return Room text for that locale, compiled once per locale
+     */
+    static RoomText forLocale(Locale locale) {
+        return CACHE.computeIfAbsent(locale, l -> new RoomText(bundle(l)));
+    }
+
+    private static ResourceBundle bundle(Locale locale) {
+        try {
+            // Don't fall back to the JVM's default locale: the room's locale is a setting
+            return ResourceBundle.getBundle(BUNDLE, locale,
+                    ResourceBundle.Control.getNoFallbackControl(ResourceBundle.Control.FORMAT_PROPERTIES));
+        } catch (MissingResourceException e) {
+            if (!Locale.ROOT.equals(locale)) {
+                Log.log(Level.WARNING, RoomText.class, "No room text found for {0}, using defaults", locale);
+            }
+            return null;
+        }
+    }
+
+    private static String text(ResourceBundle bundle, String key, String defaultValue) {
+        return bundle != null && bundle.containsKey(key) ? bundle.getString(key) : defaultValue;
+    }
+}
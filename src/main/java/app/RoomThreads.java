@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Threads used by the room (outside of those owned by the container).
+ * <p>
+ * Threads are either regular platform threads, or (when running on Java 21
+ * or later with {@code room.threads.virtual=true}) virtual threads, which
+ * are cheap enough that thousands of blocked writes don't need thousands
+ * of platform threads. The code is compiled for Java 8, so virtual threads
+ * are looked up reflectively; if they aren't available, platform threads
+ * are used instead.
+ */
+final class RoomThreads {
+
+    /**
+     * {@code Thread.ofVirtual()}, or null before Java 21
+     */
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    /**
+     * {@code Executors.newThreadPerTaskExecutor(ThreadFactory)}, or null before Java 21
+     */
+    private static final Method THREAD_PER_TASK;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method perTask = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+        THREAD_PER_TASK = perTask;
+    }
+
+    private RoomThreads() {
+    }
+
+    /**
+     * @return true if this JVM supports virtual threads
+     */
+    static boolean isVirtualAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @param prefix Prefix for thread names, e.g. "room-writer"
+     * @return A factory for daemon threads named prefix-1, prefix-2, ...
+     */
+    static ThreadFactory named(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * @param prefix  Prefix for thread names
+     * @param virtual true to create virtual threads (if available)
+     * @return A factory for threads named prefix-1, prefix-2, ...
+     */
+    static ThreadFactory named(String prefix, boolean virtual) {
+        if (useVirtual(virtual)) {
+            try {
+                Object builder = OF_VIRTUAL.invoke(null);
+                builder = BUILDER_NAME.invoke(builder, prefix + "-", 1L);
+                return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                Log.log(Level.WARNING, RoomThreads.class, "Unable to create virtual threads, using platform threads", e);
+            }
+        }
+        return named(prefix);
+    }
+
+    /**
+     * An executor for short-lived, possibly blocking tasks (like writing to a session).
+     *
+     * @param prefix  Prefix for thread names
+     * @param virtual true to run each task on its own virtual thread (if available)
+     * @return a new thread per task (virtual), or a cached pool of platform threads
+     */
+    static ExecutorService newTaskExecutor(String prefix, boolean virtual) {
+        if (useVirtual(virtual)) {
+            try {
+                return (ExecutorService) THREAD_PER_TASK.invoke(null, named(prefix, true));
+            } catch (ReflectiveOperationException e) {
+                Log.log(Level.WARNING, RoomThreads.class, "Unable to create virtual threads, using platform threads", e);
+            }
+        }
+        return Executors.newCachedThreadPool(named(prefix));
+    }
+
+    private static boolean useVirtual(boolean virtual) {
+        if (virtual && !isVirtualAvailable()) {
+            Log.log(Level.WARNING, RoomThreads.class, "Virtual threads require Java 21 or later, using platform threads");
+            return false;
+        }
+        return virtual;
+    }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Index from a key to the session(s) messages for it should go to: from a
+ * player's userId to the sessions that player is using, or from a room id
+ * to the sessions in that room.
+ * <p>
+ * A player is routed to a session when a {@code roomHello} or {@code roomJoin}
+ * for them arrives on it, and unrouted on {@code roomGoodbye}, {@code roomPart},
+ * or when the session closes. Messages for a specific player can then be
+ * written only to that player's sessions, rather than to everyone. Rooms
+ * work the same way (see {@link SocketHandler}).
+ * <p>
+ * Each session also records its own keys (see {@link SessionEntry}), so
+ * everything routed to it can be removed when it closes.
+ * <p>
+ * As with the {@link SessionRegistry}, sessions for a key are kept in an
+ * immutable array that is replaced on change, so lookups never lock.
+ */
+class Routes {
+
+    private final ConcurrentHashMap<String, SessionEntry[]> routes = new ConcurrentHashMap<>();
+    /**
+     * The keys a session is routed for (e.g. {@link SessionEntry#getUsers()})
+     */
+    private final Function<SessionEntry, Set<String>> keys;
+
+    /**
+     * @param keys The keys a session is routed for: kept by the session
+     */
+    Routes(Function<SessionEntry, Set<String>> keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * Route messages for a user (or room) to a session
+     *
+     * @param userId Player (or room) id
+     * @param entry  Session the player's hello/join arrived on
+     */
+    void add(String userId, SessionEntry entry) {
+        if (keys.apply(entry).add(userId)) {
+            routes.merge(userId, new SessionEntry[]{entry}, (current, added) -> {
+                SessionEntry[] next = Arrays.copyOf(current, current.length + 1);
+                next[current.length] = entry;
+                return next;
+            });
+        }
+    }
+
+    /**
+     * Stop routing messages for a user (or room) to a session
+     *
+     * @param userId Player (or room) id
+     * @param entry  Session the player's goodbye/part arrived on
+     */
+    void remove(String userId, SessionEntry entry) {
+        if (keys.apply(entry).remove(userId)) {
+            routes.computeIfPresent(userId, (id, current) -> without(current, entry));
+        }
+    }
+
+    /**
+     * Stop routing anything to a session (it was closed)
+     *
+     * @param entry Session that was closed
+     */
+    void removeAll(SessionEntry entry) {
+        for (String userId : keys.apply(entry)) {
+            remove(userId, entry);
+        }
+    }
+
+    /**
+     * @param userId Player (or room) id
+     * @return the sessions for the player, or null if none are known
+     */
+    SessionEntry[] get(String userId) {
+        return routes.get(userId);
+    }
+
+    /**
+     * @return number of players (or rooms) with at least one session
+     */
+    int size() {
+        return routes.size();
+    }
+
+    /**
+     * @return a copy of array without entry, or null (removing the mapping) if nothing is left
+     */
+    private static SessionEntry[] without(SessionEntry[] array, SessionEntry entry) {
+        int n = 0;
+        SessionEntry[] next = new SessionEntry[array.length];
+        for (SessionEntry e : array) {
+            if (e != entry) {
+                next[n++] = e;
+            }
+        }
+        return n == 0 ? null : Arrays.copyOf(next, n);
+    }
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Per-session bookkeeping held by the {@link SessionRegistry}. One entry
+ * is created when a WebSocket connection is established, and it lives
+ * until that connection is closed.
+ *
+ * @see SessionRegistry
+ */
+class SessionEntry {
+
+    private final WebSocketSession session;
+    private final String id;
+    private final long connectedAt;
+    private final OutboundQueue outbound;
+    /**
+     * Inbound rate limit for the session, or null if there is none
+     */
+    private final TokenBucket inbound;
+    /**
+     * Limit on the rooms the session creates, or null if there is none
+     */
+    private final TokenBucket roomCreation;
+    /**
+     * Time (in milliseconds, on the {@link IdleReaper}'s monotonic clock) a message
+     * or pong last arrived on the session: set by the reaper once it watches the session
+     *
+     * @see IdleReaper
+     */
+    private volatile long lastActivity;
+    /**
+     * Players routed to this session
+     *
+     * @see Routes
+     */
+    private final Set<String> users = ConcurrentHashMap.newKeySet();
+    /**
+     * Rooms this session is in
+     *
+     * @see Routes
+     */
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    /**
+     * Players in each room through this session (hello or join, not yet goodbye or part),
+     * by room id: the rooms to tell if the session closes
+     */
+    private final ConcurrentHashMap<String, Set<String>> players = new ConcurrentHashMap<>();
+
+    /**
+     * @param session      WebSocketSession that was opened
+     * @param writer       Executor used to write queued frames to the session
+     * @param timer        Used to delay writes, so they can be coalesced
+     * @param settings     Limits for the session's outbound queue
+     * @param measureEvery Deflate 1 in this many frames to estimate compression (0 for none)
+     * @param inbound      Inbound rate limit for the session (may be null)
+     * @param roomCreation Limit on the rooms the session creates (may be null)
+     */
+    SessionEntry(WebSocketSession session, Executor writer, ScheduledExecutorService timer,
+                 RoomSettings.Outbound settings, int measureEvery, TokenBucket inbound, TokenBucket roomCreation) {
+        this.session = session;
+        this.id = session.getId();
+        this.connectedAt = System.currentTimeMillis();
+        this.outbound = new OutboundQueue(session, writer, timer, settings, measureEvery);
+        this.inbound = inbound;
+        this.roomCreation = roomCreation;
+    }
+
+    /**
+     * @return Time (in milliseconds) of the last activity on the session
+     */
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * @param now Time (in milliseconds) activity was seen on the session
+     */
+    void touch(long now) {
+        lastActivity = now;
+    }
+
+    /**
+     * @return Inbound rate limit for the session, or null if there is none
+     */
+    TokenBucket getInbound() {
+        return inbound;
+    }
+
+    /**
+     * @return Limit on the rooms the session creates, or null if there is none
+     */
+    TokenBucket getRoomCreation() {
+        return roomCreation;
+    }
+
+    /**
+     * @return The WebSocketSession this entry describes
+     */
+    WebSocketSession getSession() {
+        return session;
+    }
+
+    /**
+     * @return The id of the WebSocketSession (cached, as some containers compute it)
+     */
+    String getId() {
+        return id;
+    }
+
+    /**
+     * @return Time (in milliseconds since the epoch) that the session was opened
+     */
+    long getConnectedAt() {
+        return connectedAt;
+    }
+
+    /**
+     * @return Queue of frames waiting to be written to this session
+     */
+    OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    /**
+     * @return Ids of the players whose messages are routed to this session
+     */
+    Set<String> getUsers() {
+        return users;
+    }
+
+    /**
+     * @return Ids of the rooms this session is in
+     */
+    Set<String> getRooms() {
+        return rooms;
+    }
+
+    /**
+     * A player said hello to (or rejoined) a room through this session
+     *
+     * @param roomId Room id
+     * @param userId Player id
+     */
+    void joined(String roomId, String userId) {
+        players.compute(roomId, (id, users) -> {
+            Set<String> result = users == null ? ConcurrentHashMap.newKeySet() : users;
+            result.add(userId);
+            return result;
+        });
+    }
+
+    /**
+     * A player said goodbye to (or parted from) a room through this session
+     *
+     * @param roomId Room id
+     * @param userId Player id
+     */
+    void left(String roomId, String userId) {
+        players.computeIfPresent(roomId, (id, users) -> users.remove(userId) && users.isEmpty() ? null : users);
+    }
+
+    /**
+     * @return Ids of the players in each room through this session, by room id
+     */
+    Map<String, Set<String>> getPlayers() {
+        return players;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionEntry[id=" + id + ", connectedAt=" + connectedAt + ", users=" + users + ", rooms=" + rooms
+                + ", queued=" + outbound.getDepth() + ", dropped=" + outbound.getDropped() + "]";
+    }
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Registry of the WebSocket sessions connected to this room.
+ * <p>
+ * Broadcast iterates over every session for every outbound message, while
+ * sessions are added and removed comparatively rarely. Entries are therefore
+ * published as an immutable array snapshot (copy-on-write, installed with a
+ * compare-and-set): iterating for a broadcast is a single volatile read and
+ * a plain array walk, with no locking and no iterator allocation. Connects and
+ * disconnects never block each other, they just retry the swap if they race.
+ * <p>
+ * A separate map from session id to entry keeps per-session lookups cheap.
+ */
+class SessionRegistry {
+
+    private static final SessionEntry[] EMPTY = new SessionEntry[0];
+
+    private final AtomicReference<SessionEntry[]> snapshot = new AtomicReference<>(EMPTY);
+    private final ConcurrentHashMap<String, SessionEntry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Register a newly connected session.
+     *
+     * @param entry Entry for the WebSocketSession that was opened
+     * @return the registered entry (an existing entry if the session was already registered)
+     */
+    SessionEntry add(SessionEntry entry) {
+        SessionEntry existing = entries.putIfAbsent(entry.getId(), entry);
+        if (existing != null) {
+            return existing;
+        }
+
+        SessionEntry[] current;
+        SessionEntry[] next;
+        do {
+            current = snapshot.get();
+            next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = entry;
+        } while (!snapshot.compareAndSet(current, next));
+
+        return entry;
+    }
+
+    /**
+     * Remove a session from the registry
+     *
+     * @param sessionId id of the session that was closed
+     * @return the removed entry, or null if the session was not registered
+     */
+    SessionEntry remove(String sessionId) {
+        SessionEntry entry = entries.remove(sessionId);
+        if (entry == null) {
+            return null;
+        }
+
+        SessionEntry[] current;
+        SessionEntry[] next;
+        do {
+            current = snapshot.get();
+            int i = indexOf(current, entry);
+            if (i < 0) {
+                break;
+            }
+            next = new SessionEntry[current.length - 1];
+            System.arraycopy(current, 0, next, 0, i);
+            System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+        } while (!snapshot.compareAndSet(current, next));
+
+        return entry;
+    }
+
+    /**
+     * @param sessionId id of a connected session
+     * @return the entry for the session, or null if it isn't registered
+     */
+    SessionEntry get(String sessionId) {
+        return entries.get(sessionId);
+    }
+
+    /**
+     * Current set of sessions, for iteration. The returned array is shared:
+     * callers must not modify it.
+     *
+     * @return a point-in-time snapshot of the registered sessions. Never null.
+     */
+    SessionEntry[] snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * @return number of registered sessions
+     */
+    int size() {
+        return snapshot.get().length;
+    }
+
+    private static int indexOf(SessionEntry[] array, SessionEntry entry) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == entry) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -16,41 +16,178 @@
 
 package app;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
-import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.PongMessage;
 import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
-import javax.websocket.CloseReason;
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.logging.Level;
 
 @Component
 public class SocketHandler extends TextWebSocketHandler {
 
-    private final HashMap<String, WebSocketSession> sessions = new HashMap<>();
+    /**
+     * The ack is identical for every connection: encode it once.
+     */
+    private static final OutboundFrame ACK_FRAME = OutboundFrame.of(Message.ACK_MSG);
+
+    /**
+     * Resolution of room timeouts (idle sessions, ...)
+     */
+    private static final long WHEEL_TICK_MS = 100;
+
+    /**
+     * Room key for sessions that haven't said hello to any room yet: they see every room's broadcasts
+     */
+    static final String UNASSIGNED = "";
+
+    static final String SLOW_DOWN = "Slow down! You are sending messages faster than the room can take them.";
+    static final String ROOM_BUSY = "The room is too busy right now. Try again in a moment.";
+    static final String ROOM_UNAVAILABLE = "The room can't be opened right now. Try again later.";
+
+    private final SessionRegistry sessions = new SessionRegistry();
+    private final Routes routes = new Routes(SessionEntry::getUsers);
+    private final Routes roomRoutes = new Routes(SessionEntry::getRooms);
     @Inject
-    private RoomImplementation roomImplementation;
+    ObjectProvider<RoomImplementation> roomProvider;
+    /**
+     * Creates the room for a room id: a new (prototype) bean when running in Spring
+     */
+    Function<String, RoomImplementation> roomFactory = SocketHandler::newRoom;
+    @Inject
+    RoomSettings settings = new RoomSettings();
+    /**
+     * Time for timeouts and room timers, in milliseconds: monotonic, so setting
+     * the wall clock doesn't reap every session at once (or none at all)
+     */
+    LongSupplier clock = () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+
+    /**
+     * Writes queued frames to sessions
+     */
+    private ExecutorService writers;
+    /**
+     * Timed room work (e.g. starting coalesced writes)
+     */
+    private ScheduledExecutorService timer;
+    /**
+     * Runs room logic: each room's mailbox is drained on the lane for its room id
+     */
+    private PartitionedDispatcher dispatcher;
+    /**
+     * Limits how fast sessions and players can send room messages
+     */
+    private RateLimiter rateLimiter;
+    /**
+     * Room timeouts: advanced by the timer
+     */
+    private TimerWheel wheel;
+    /**
+     * Pings and closes quiet sessions
+     */
+    private IdleReaper idleReaper;
+    /**
+     * The rooms hosted here, by room id
+     */
+    private RoomRegistry rooms;
+
+    @PostConstruct
+    void postConstruct() {
+        boolean virtual = settings.getThreads().isVirtual();
+        writers = RoomThreads.newTaskExecutor("room-writer", virtual);
+        timer = Executors.newSingleThreadScheduledExecutor(RoomThreads.named("room-timer"));
+        dispatcher = new PartitionedDispatcher(settings.getDispatch().getLanes(),
+                settings.getDispatch().getLaneCapacity(), RoomThreads.named("room-lane", virtual));
+        rateLimiter = new RateLimiter(settings.getRateLimit(), System::nanoTime);
+        timer.scheduleWithFixedDelay(rateLimiter::prune, 1, 1, TimeUnit.MINUTES);
+        wheel = new TimerWheel(WHEEL_TICK_MS, 512, clock);
+        timer.scheduleAtFixedRate(wheel::advance, WHEEL_TICK_MS, WHEEL_TICK_MS, TimeUnit.MILLISECONDS);
+        idleReaper = new IdleReaper(wheel, sessions, settings.getHeartbeat(), clock, writers);
+        if (roomProvider != null) {
+            roomFactory = roomId -> roomProvider.getObject();
+        }
+        int mailboxCapacity = settings.getDispatch().getMailboxCapacity();
+        int drainBatch = settings.getDispatch().getDrainBatch();
+        rooms = new RoomRegistry(roomFactory,
+                roomId -> new RoomMailbox(dispatcher.executor(roomId), dispatcher.executorNoWait(roomId),
+                        mailboxCapacity, drainBatch, System::nanoTime),
+                settings.getHosting(), wheel, clock);
+        // On the timer's thread, which also turns the wheel: never wait for a full lane. A
+        // prune that can't start now runs with the room's next drain (or next minute's kick).
+        timer.scheduleWithFixedDelay(() -> rooms.forEach(r -> r.getMailbox().putNow(r.getPresence()::prune)),
+                1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void preDestroy() {
+        dispatcher.shutdown();
+        timer.shutdown();
+        writers.shutdown();
+    }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        sessions.put(session.getId(), session);
-        session.sendMessage(new TextMessage(Message.ACK_MSG.toString()));
+        SessionEntry entry = sessions.add(new SessionEntry(session, writers, timer,
+                settings.getOutbound(), settings.getCompression().getMeasureEvery(), rateLimiter.newSessionBucket(),
+                rateLimiter.newRoomCreationBucket()));
+        idleReaper.watch(entry);
+        roomRoutes.add(UNASSIGNED, entry);
+        entry.getOutbound().offer(ACK_FRAME);
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        sessions.remove(session.getId());
+        SessionEntry entry = sessions.remove(session.getId());
+        if (entry != null) {
+            // Players still on the session leave without parting: tell their rooms, after
+            // anything they sent before
+            entry.getPlayers().forEach((roomId, users) -> {
+                RoomImplementation room = rooms.peek(roomId);
+                if (room != null) {
+                    for (String userId : users) {
+                        room.getMailbox().put(() -> room.sessionClosed(userId));
+                    }
+                }
+            });
+            routes.removeAll(entry);
+            roomRoutes.removeAll(entry);
+            entry.getOutbound().close();
+        }
         Log.log(Level.INFO, this, "WebSocketSession with Id (" + session.getId() + ") closed with reason: " + status.getReason());
     }
 
     /**
-     * The hook into the interesting room stuff
+     * The hook into the interesting room stuff. The message is queued for
+     * the room it is for (by {@code targetId}, see {@link RoomRegistry}), which
+     * handles its messages one at a time, in order, on a worker lane (see
+     * {@link RoomMailbox}), while the container's thread goes back to reading.
+     * <p>
+     * Room commands and chat are rate limited (see {@link RateLimiter}): a
+     * message over the limit is answered with an event for the sender only,
+     * and never reaches the room. So is a message for a room with too many
+     * messages already waiting.
+     * <p>
+     * A message for a room that isn't hosted creates it, unless the process
+     * already hosts {@code room.hosting.max-rooms}, or the session has created
+     * rooms too fast: then the sender is told the room can't be opened, and
+     * the message goes nowhere (the session doesn't join the room).
+     * <p>
+     * Anything that arrives, including a pong, counts as activity for the
+     * {@link IdleReaper}.
      *
      * @param session WebSocketSession we received the Message from
      * @param message Message to handle
@@ -58,48 +195,239 @@ public class SocketHandler extends TextWebSocketHandler {
      */
     @Override
     public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
-        roomImplementation.handleMessage(new Message(message.getPayload().toString()), this);
+        SessionEntry entry = sessions.get(session.getId());
+        if (entry != null) {
+            idleReaper.touch(entry);
+        }
+        if (message instanceof PongMessage) {
+            return;
+        }
+
+        Message m = new Message(message.getPayload().toString());
+        String userId = m.getUserId();
+        if (m.getTarget() == Message.Target.room && entry != null
+                && !rateLimiter.tryAcquire(entry.getInbound(), userId)) {
+            refused(entry, userId, SLOW_DOWN);
+            return;
+        }
+        RoomImplementation room = rooms.get(m.getTargetId(),
+                () -> entry == null || rateLimiter.tryCreateRoom(entry.getRoomCreation()));
+        if (room == null) {
+            if (entry != null) {
+                refused(entry, userId, ROOM_UNAVAILABLE);
+            }
+            return;
+        }
+        updateRoutes(entry, m);
+        if (!room.getMailbox().offer(() -> room.handleMessage(m, this)) && entry != null) {
+            refused(entry, userId, ROOM_BUSY);
+        }
+    }
+
+    /**
+     * Tell the sender (and only the sender) their message was dropped
+     *
+     * @param entry  Session the message arrived on
+     * @param userId Player that sent it
+     * @param reason What to tell them
+     */
+    private void refused(SessionEntry entry, String userId, String reason) {
+        if (userId != null) {
+            entry.getOutbound().offer(OutboundFrame.of(Message.createSpecificEvent(userId, reason)));
+        }
+    }
+
+    /**
+     * Keep track of which session(s) each player is using, so messages
+     * for a specific player only go to their sessions. Sessions join
+     * the room of the first hello (or join) for it, and stay until
+     * they close.
+     *
+     * @param entry   Session the message arrived on
+     * @param message Inbound message
+     */
+    private void updateRoutes(SessionEntry entry, Message message) {
+        switch (message.getTarget()) {
+            case roomHello:
+            case roomJoin:
+            case roomGoodbye:
+            case roomPart:
+                if (entry == null) {
+                    return;
+                }
+                String userId = message.getUserId();
+                if (userId == null) {
+                    return;
+                }
+                if (message.getTarget() == Message.Target.roomHello || message.getTarget() == Message.Target.roomJoin) {
+                    routes.add(userId, entry);
+                    roomRoutes.add(message.getTargetId(), entry);
+                    roomRoutes.remove(UNASSIGNED, entry);
+                    entry.joined(message.getTargetId(), userId);
+                } else {
+                    routes.remove(userId, entry);
+                    entry.left(message.getTargetId(), userId);
+                }
+                break;
+
+            default:
+                break;
+        }
     }
 
     /**
      * Simple broadcast: loop over all mentioned sessions to send the message
      * <p>
-     * We are effectively always broadcasting: a player could be connected
-     * to more than one device, and that could correspond to more than one connected
-     * session. Allow topic filtering on the receiving side (Mediator and browser)
-     * to filter out and display messages.
+     * A player could be connected to more than one device, and that could
+     * correspond to more than one connected session. Messages for a specific
+     * player go to every session that player said hello (or rejoined) on.
+     * Everything else, or a message for a player we don't have a session for,
+     * is broadcast: allow topic filtering on the receiving side (Mediator and browser)
+     * to filter out and display messages. A broadcast from a room only goes
+     * to the sessions in that room (and those not in any room yet).
+     * <p>
+     * The message is encoded once into a single immutable frame that is
+     * shared by all sessions. Frames are queued per session, and written
+     * asynchronously (see {@link OutboundQueue}), so a slow connection
+     * doesn't hold up the room.
      *
      * @param message Message to send
      */
     public void sendMessage(Message message) {
-        for (WebSocketSession s : sessions.values()) {
-            sendMessageToSession(s, message);
+        SessionEntry[] targets = null;
+        if (message.isForPlayer()) {
+            targets = routes.get(message.getTargetId());
+        }
+        if (targets == null) {
+            if (message.getRoom() != null) {
+                sendToRoom(message);
+                return;
+            }
+            targets = sessions.snapshot();
+        }
+        if (targets.length == 0) {
+            return;
+        }
+
+        OutboundFrame frame = OutboundFrame.of(message);
+        for (SessionEntry s : targets) {
+            s.getOutbound().offer(frame);
+        }
+    }
+
+    private void sendToRoom(Message message) {
+        SessionEntry[] inRoom = roomRoutes.get(message.getRoom());
+        SessionEntry[] unassigned = roomRoutes.get(UNASSIGNED);
+        if (inRoom == null && unassigned == null) {
+            return;
+        }
+
+        OutboundFrame frame = OutboundFrame.of(message);
+        if (inRoom != null) {
+            for (SessionEntry s : inRoom) {
+                s.getOutbound().offer(frame);
+            }
+        }
+        if (unassigned != null) {
+            for (SessionEntry s : unassigned) {
+                s.getOutbound().offer(frame);
+            }
         }
     }
 
     /**
-     * Send a {@link Message} to a WebSocketSession
+     * Send a message only to a player's sessions, whoever it is addressed to
+     * (e.g. a broadcast they missed, replayed when they rejoin). If the player
+     * has no known sessions, the message is dropped.
      *
-     * @param session WebSocketSession to send the message to
+     * @param userId  Player to send to
      * @param message Message to send
-     * @return True on success, else false. Closes session on failure.
      */
-    private boolean sendMessageToSession(WebSocketSession session, Message message) {
-        try {
-            session.sendMessage(new TextMessage(message.toString()));
-            return true;
-        } catch (IOException e) {
-            Log.log(Level.INFO, this, "Exception occurred while sending message: " + e.getLocalizedMessage());
-            tryToClose(session, new CloseStatus(CloseReason.CloseCodes.UNEXPECTED_CONDITION.getCode(), trimReason(e.getLocalizedMessage())));
-            return false;
+    public void sendToPlayer(String userId, Message message) {
+        SessionEntry[] targets = routes.get(userId);
+        if (targets == null || targets.length == 0) {
+            return;
         }
+
+        OutboundFrame frame = OutboundFrame.of(message);
+        for (SessionEntry s : targets) {
+            s.getOutbound().offer(frame);
+        }
+    }
+
+    /**
+     * @return number of connected sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * @return the connected sessions (for stats)
+     */
+    SessionRegistry getSessions() {
+        return sessions;
+    }
+
+    /**
+     * @return the worker lanes (for stats)
+     */
+    PartitionedDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @return the inbound rate limiter (for stats)
+     */
+    RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return the idle session reaper (for stats)
+     */
+    IdleReaper getIdleReaper() {
+        return idleReaper;
+    }
+
+    /**
+     * @return the player to session index (for stats)
+     */
+    Routes getRoutes() {
+        return routes;
+    }
+
+    /**
+     * @return the room id to session index (for stats)
+     */
+    Routes getRoomRoutes() {
+        return roomRoutes;
+    }
+
+    /**
+     * @return the hosted rooms
+     */
+    RoomRegistry getRooms() {
+        return rooms;
+    }
+
+    /**
+     * A room, outside of Spring
+     */
+    private static RoomImplementation newRoom(String roomId) {
+        RoomImplementation room = new RoomImplementation();
+        room.postConstruct();
+        return room;
     }
 
     /**
      * @param reason String to trim
      * @return A String no longer than 123 characters (limit of value length for {@code CloseReason})
      */
-    private String trimReason(String reason) {
+    static String trimReason(String reason) {
+        if (reason == null) {
+            return "";
+        }
         return reason.length() > 123 ? reason.substring(0, 123) : reason;
     }
 
@@ -109,7 +437,7 @@ public class SocketHandler extends TextWebSocketHandler {
      * @param session WebSocketSession to close
      * @param status  {@link CloseStatus} of the WebSocketSession
      */
-    private void tryToClose(WebSocketSession session, CloseStatus status) {
+    static void tryToClose(WebSocketSession session, CloseStatus status) {
         try {
             session.close(status);
         } catch (IOException e) {
@@ -122,7 +450,7 @@ public class SocketHandler extends TextWebSocketHandler {
      *
      * @param c Closable to close
      */
-    private void tryToClose(Closeable c) {
+    static void tryToClose(Closeable c) {
         if (c != null) {
             try {
                 c.close();
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runtime counters for the room, at {@code /stats}: use this to see whether
+ * sessions are lagging.
+ * <p>
+ * The endpoint isn't authenticated, so it only reports counts: no session
+ * ids, and nothing that identifies a player.
+ */
+@RestController
+public class StatsEndpoint {
+
+    @Inject
+    SocketHandler handler;
+
+    @RequestMapping("stats")
+    public @ResponseBody
+    Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+
+        SessionEntry[] entries = handler.getSessions().snapshot();
+        List<Map<String, Object>> sessions = new ArrayList<>(entries.length);
+        for (SessionEntry e : entries) {
+            sessions.add(sessionStats(e));
+        }
+        stats.put("sessionCount", entries.length);
+        stats.put("routedUsers", handler.getRoutes().size());
+        stats.put("sessions", sessions);
+
+        PartitionedDispatcher dispatcher = handler.getDispatcher();
+        List<Map<String, Object>> lanes = new ArrayList<>(dispatcher.getLaneCount());
+        for (int i = 0; i < dispatcher.getLaneCount(); i++) {
+            Map<String, Object> lane = new LinkedHashMap<>();
+            lane.put("depth", dispatcher.getDepth(i));
+            lane.put("processed", dispatcher.getProcessed(i));
+            lanes.add(lane);
+        }
+        stats.put("lanes", lanes);
+
+        RoomRegistry hosted = handler.getRooms();
+        int[] present = {0};
+        int[] known = {0};
+        long[] recorded = {0};
+        int[] timers = {0};
+        // queued, deepest, processed, rejected, processing time, longest
+        long[] mail = new long[6];
+        hosted.forEach(r -> {
+            present[0] += r.getPresence().getPresentCount();
+            known[0] += r.getPresence().size();
+            recorded[0] += r.history.getRecorded();
+            timers[0] += r.getScheduler().getPending();
+            RoomMailbox mailbox = r.getMailbox();
+            mail[0] += mailbox.getDepth();
+            mail[1] = Math.max(mail[1], mailbox.getMaxDepth());
+            mail[2] += mailbox.getProcessed();
+            mail[3] += mailbox.getRejected();
+            mail[4] += mailbox.getProcessingNanos();
+            mail[5] = Math.max(mail[5], mailbox.getMaxProcessingNanos());
+        });
+        Map<String, Object> rooms = new LinkedHashMap<>();
+        rooms.put("hosted", hosted.size());
+        rooms.put("created", hosted.getCreated());
+        rooms.put("evicted", hosted.getEvicted());
+        rooms.put("refused", hosted.getRefused());
+        rooms.put("routed", handler.getRoomRoutes().size());
+        rooms.put("present", present[0]);
+        rooms.put("known", known[0]);
+        rooms.put("historyRecorded", recorded[0]);
+        rooms.put("pendingTimers", timers[0]);
+        Map<String, Object> mailboxes = new LinkedHashMap<>();
+        mailboxes.put("queued", mail[0]);
+        mailboxes.put("maxDepth", mail[1]);
+        mailboxes.put("processed", mail[2]);
+        mailboxes.put("rejected", mail[3]);
+        mailboxes.put("avgProcessingMicros", mail[2] == 0 ? 0 : mail[4] / mail[2] / 1000);
+        mailboxes.put("maxProcessingMicros", mail[5] / 1000);
+        rooms.put("mailboxes", mailboxes);
+        stats.put("rooms", rooms);
+
+        RateLimiter rateLimiter = handler.getRateLimiter();
+        Map<String, Object> throttled = new LinkedHashMap<>();
+        throttled.put("bySession", rateLimiter.getSessionThrottled());
+        throttled.put("byUser", rateLimiter.getUserThrottled());
+        throttled.put("roomCreation", rateLimiter.getRoomCreationThrottled());
+        throttled.put("trackedUsers", rateLimiter.getUserCount());
+        stats.put("throttled", throttled);
+
+        IdleReaper idleReaper = handler.getIdleReaper();
+        Map<String, Object> heartbeat = new LinkedHashMap<>();
+        heartbeat.put("pings", idleReaper.getPings());
+        heartbeat.put("reaped", idleReaper.getReaped());
+        stats.put("heartbeat", heartbeat);
+
+        long before = 0;
+        long after = 0;
+        int compressed = 0;
+        for (SessionEntry e : entries) {
+            OutboundQueue outbound = e.getOutbound();
+            if (outbound.isCompressed()) {
+                compressed++;
+                before += outbound.getBytesBeforeDeflate();
+                after += outbound.getEstimatedBytesAfterDeflate();
+            }
+        }
+        Map<String, Object> compression = new LinkedHashMap<>();
+        compression.put("sessions", compressed);
+        compression.put("bytesBefore", before);
+        compression.put("estimatedBytesAfter", after);
+        compression.put("messagesMeasured", Deflation.getMessages());
+        compression.put("measureNanos", Deflation.getNanos());
+        stats.put("compression", compression);
+
+        return stats;
+    }
+
+    private Map<String, Object> sessionStats(SessionEntry e) {
+        OutboundQueue outbound = e.getOutbound();
+
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("connectedAt", e.getConnectedAt());
+        s.put("idleMs", handler.clock.getAsLong() - e.getLastActivity());
+        s.put("users", e.getUsers().size());
+        s.put("queueDepth", outbound.getDepth());
+        s.put("queuedBytes", outbound.getQueuedBytes());
+        s.put("sent", outbound.getSent());
+        s.put("batches", outbound.getBatches());
+        s.put("dropped", outbound.getDropped());
+        if (outbound.isCompressed()) {
+            s.put("bytesBeforeDeflate", outbound.getBytesBeforeDeflate());
+            s.put("estimatedBytesAfterDeflate", outbound.getEstimatedBytesAfterDeflate());
+        }
+        return s;
+    }
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * Hashed timer wheel: a cheap way to keep track of many timeouts that are
+ * usually cancelled or pushed back before they expire.
+ * <p>
+ * Time is divided into ticks; a timeout goes into the bucket for the tick it
+ * expires on (modulo the wheel size). Scheduling and cancelling are O(1) and
+ * lock-free: new timeouts are handed over through a queue, and cancelled ones
+ * are simply skipped. {@link #advance()} must be called regularly (at least
+ * once per tick) from a single thread: it runs expired tasks on that thread,
+ * so tasks should be short, and hand anything slow to another executor.
+ * <p>
+ * Timeouts fire on or after their deadline, up to one tick (plus however late
+ * {@code advance()} is called) afterwards.
+ */
+final class TimerWheel {
+
+    private final long tick;
+    private final int mask;
+    private final ArrayDeque<Timeout>[] buckets;
+    private final LongSupplier clock;
+    private final long start;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Next tick to process: only used by the advancing thread
+     */
+    private long currentTick;
+
+    /**
+     * @param tickMs    Length of a tick, in milliseconds
+     * @param wheelSize Number of buckets (rounded up to a power of two)
+     * @param clock     Time in milliseconds: monotonic (from {@code System.nanoTime()}), so
+     *                  timeouts don't all fire (or never fire) when the wall clock is set
+     */
+    TimerWheel(long tickMs, int wheelSize, LongSupplier clock) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tick = Math.max(1, tickMs);
+        this.mask = size - 1;
+        // No generic array creation: the array is private, and only ever holds ArrayDeque<Timeout>
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<Timeout>[] buckets = new ArrayDeque[size];
+        this.buckets = buckets;
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.clock = clock;
+        this.start = clock.getAsLong();
+    }
+
+    /**
+     * @param task    Task to run when the timeout expires
+     * @param delayMs Delay, in milliseconds
+     * @return a handle that can be used to cancel the timeout
+     */
+    Timeout schedule(Runnable task, long delayMs) {
+        Timeout t = new Timeout(task, clock.getAsLong() + Math.max(0, delayMs));
+        added.add(t);
+        return t;
+    }
+
+    /**
+     * Run the tasks for every tick that has passed since the last call
+     */
+    void advance() {
+        long target = (clock.getAsLong() - start) / tick;
+        while (currentTick <= target) {
+            transfer();
+            expire(buckets[(int) (currentTick & mask)]);
+            currentTick++;
+        }
+    }
+
+    /**
+     * @return the length of a tick, in milliseconds
+     */
+    long getTick() {
+        return tick;
+    }
+
+    private void transfer() {
+        Timeout t;
+        while ((t = added.poll()) != null) {
+            if (t.cancelled) {
+                continue;
+            }
+            // Round up, so a timeout never fires early
+            long due = (t.deadline - start + tick - 1) / tick;
+            t.tick = Math.max(due, currentTick);
+            buckets[(int) (t.tick & mask)].add(t);
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> bucket) {
+        for (Iterator<Timeout> i = bucket.iterator(); i.hasNext(); ) {
+            Timeout t = i.next();
+            if (t.cancelled) {
+                i.remove();
+            } else if (t.tick <= currentTick) {
+                i.remove();
+                try {
+                    t.task.run();
+                } catch (Throwable e) {
+                    // Nothing may escape advance(): the scheduled executor running it
+                    // would quietly stop, and with it every timer in the process
+                    Log.log(Level.WARNING, this, "Timer task failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A scheduled task
+     */
+    static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        /**
+         * Tick the timeout expires on: set when it is placed in a bucket
+         */
+        private long tick;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the timeout: the task will not run (unless it already has)
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket: allows {@code rate} messages per second on
+ * average, with bursts of up to {@code burst} messages.
+ * <p>
+ * Implemented as GCRA (generic cell rate algorithm): rather than a token
+ * count and a refill time, the bucket keeps a single "theoretical arrival
+ * time" (TAT), moved forward by one interval per accepted message. A
+ * message is accepted if the TAT isn't more than the burst allowance ahead
+ * of now. One compare-and-set per accepted message, and no refill task.
+ */
+final class TokenBucket {
+
+    /**
+     * TAT of a bucket that hasn't been used yet
+     */
+    private static final long UNUSED = Long.MIN_VALUE;
+
+    /**
+     * Time (nanoseconds) it takes for one token to be added to the bucket
+     */
+    private final long interval;
+    /**
+     * How far ahead of now the TAT may get: {@code (burst - 1) * interval}
+     */
+    private final long tolerance;
+    private final AtomicLong tat = new AtomicLong(UNUSED);
+
+    /**
+     * @param rate  Tokens added per second (must be positive)
+     * @param burst Size of the bucket (at least 1)
+     */
+    TokenBucket(double rate, int burst) {
+        this.interval = Math.max(1, (long) (1_000_000_000L / rate));
+        this.tolerance = (Math.max(1, burst) - 1) * interval;
+    }
+
+    /**
+     * @param now Current time, in nanoseconds (e.g. {@link System#nanoTime()})
+     * @return true if a token was taken, false if the bucket is empty
+     */
+    boolean tryAcquire(long now) {
+        for (; ; ) {
+            long current = tat.get();
+            long base = current != UNUSED && current - now > 0 ? current : now;
+            if (base - now > tolerance) {
+                return false;
+            }
+            if (tat.compareAndSet(current, base + interval)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param now Current time, in nanoseconds
+     * @return true if the bucket has refilled completely (so is the same as a new one)
+     */
+    boolean isFull(long now) {
+        long current = tat.get();
+        return current == UNUSED || current - now <= 0;
+    }
+}
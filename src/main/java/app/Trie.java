@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Immutable (persistent) trie of words, ignoring case, for finding the
+ * registered word nearest to a mistyped one ("did you mean /look?").
+ * <p>
+ * Adding or removing a word copies only the nodes on its path, so the
+ * index is updated incrementally, and a published trie can be searched
+ * without locking while a new one is built.
+ * <p>
+ * {@link #nearest} walks the trie computing one row of the Levenshtein
+ * (edit distance) table per node, sharing rows between words with a common
+ * prefix, and abandons a branch as soon as every entry in its row exceeds
+ * the best distance found so far: only a small part of a large trie is
+ * visited.
+ *
+ * @param <V> Value stored with each word
+ */
+final class Trie<V> {
+
+    /**
+     * A word found by {@link #nearest}
+     */
+    static final class Match<V> {
+        private final V value;
+        private final int distance;
+
+        Match(V value, int distance) {
+            this.value = value;
+            this.distance = distance;
+        }
+
+        V getValue() {
+            return value;
+        }
+
+        /**
+         * @return edit distance from the word searched for
+         */
+        int getDistance() {
+            return distance;
+        }
+    }
+
+    private static final class Node {
+        static final Node EMPTY = new Node(new char[0], new Node[0], null, 0);
+
+        /**
+         * Sorted
+         */
+        final char[] keys;
+        final Node[] children;
+        final Object value;
+        /**
+         * Longest word below this node (not counting the path to it)
+         */
+        final int depth;
+
+        Node(char[] keys, Node[] children, Object value, int depth) {
+            this.keys = keys;
+            this.children = children;
+            this.value = value;
+            this.depth = depth;
+        }
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i < 0 ? null : children[i];
+        }
+
+        boolean isEmpty() {
+            return value == null && keys.length == 0;
+        }
+
+        Node with(Object newValue) {
+            return new Node(keys, children, newValue, depth);
+        }
+
+        Node with(char c, Node child) {
+            int i = Arrays.binarySearch(keys, c);
+            char[] k;
+            Node[] n;
+            if (i >= 0 && child.isEmpty()) {
+                k = new char[keys.length - 1];
+                n = new Node[keys.length - 1];
+                System.arraycopy(keys, 0, k, 0, i);
+                System.arraycopy(keys, i + 1, k, i, keys.length - i - 1);
+                System.arraycopy(children, 0, n, 0, i);
+                System.arraycopy(children, i + 1, n, i, keys.length - i - 1);
+            } else if (i >= 0) {
+                k = keys;
+                n = children.clone();
+                n[i] = child;
+            } else if (child.isEmpty()) {
+                return this;
+            } else {
+                i = -i - 1;
+                k = new char[keys.length + 1];
+                n = new Node[keys.length + 1];
+                System.arraycopy(keys, 0, k, 0, i);
+                System.arraycopy(keys, i, k, i + 1, keys.length - i);
+                System.arraycopy(children, 0, n, 0, i);
+                System.arraycopy(children, i, n, i + 1, keys.length - i);
+                k[i] = c;
+                n[i] = child;
+            }
+            int d = 0;
+            for (Node child1 : n) {
+                d = Math.max(d, child1.depth + 1);
+            }
+            return new Node(k, n, value, d);
+        }
+    }
+
+    private static final Trie<?> EMPTY = new Trie<>(Node.EMPTY, 0);
+
+    private final Node root;
+    private final int size;
+
+    private Trie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> Trie<V> empty() {
+        return (Trie<V>) EMPTY;
+    }
+
+    /**
+     * @param word  Word to add (case is ignored)
+     * @param value Value for the word: replaces any value it had
+     * @return A trie with the word added
+     */
+    Trie<V> put(String word, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value is required");
+        }
+        boolean[] added = new boolean[1];
+        Node r = put(root, word, 0, value, added);
+        return new Trie<>(r, added[0] ? size + 1 : size);
+    }
+
+    private static Node put(Node node, String word, int i, Object value, boolean[] added) {
+        if (i == word.length()) {
+            added[0] = node.value == null;
+            return node.with(value);
+        }
+        char c = fold(word.charAt(i));
+        Node child = node.child(c);
+        return node.with(c, put(child == null ? Node.EMPTY : child, word, i + 1, value, added));
+    }
+
+    /**
+     * @param word Word to remove (case is ignored)
+     * @return A trie without the word (this one, if it wasn't there)
+     */
+    Trie<V> remove(String word) {
+        Node r = remove(root, word, 0);
+        return r == null ? this : new Trie<>(r, size - 1);
+    }
+
+    /**
+     * @return the node without the word, or null if the word wasn't there
+     */
+    private static Node remove(Node node, String word, int i) {
+        if (i == word.length()) {
+            return node.value == null ? null : node.with((Object) null);
+        }
+        char c = fold(word.charAt(i));
+        Node child = node.child(c);
+        if (child == null) {
+            return null;
+        }
+        Node removed = remove(child, word, i + 1);
+        return removed == null ? null : node.with(c, removed);
+    }
+
+    /**
+     * @param word Word (case is ignored)
+     * @return Value for the word, or null
+     */
+    @SuppressWarnings("unchecked")
+    V get(String word) {
+        Node node = root;
+        for (int i = 0; i < word.length() && node != null; i++) {
+            node = node.child(fold(word.charAt(i)));
+        }
+        return node == null ? null : (V) node.value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Find the word nearest to s[start, end), ignoring case. Ties go to the
+     * word that sorts first.
+     *
+     * @param maxDistance Largest edit distance (insertions, deletions, substitutions) to allow
+     * @return The nearest word's value and distance, or null if none is close enough
+     */
+    @SuppressWarnings("unchecked")
+    Match<V> nearest(String s, int start, int end, int maxDistance) {
+        int n = end - start;
+        // Deeper than n + maxDistance, every entry in the row is beyond maxDistance
+        int rowsNeeded = Math.min(root.depth, n + maxDistance) + 1;
+        int[][] rows = new int[rowsNeeded][n + 1];
+        char[] word = new char[n];
+        for (int i = 0; i < n; i++) {
+            word[i] = fold(s.charAt(start + i));
+        }
+        for (int i = 0; i <= n; i++) {
+            rows[0][i] = i;
+        }
+        Search search = new Search(word, rows, maxDistance);
+        if (root.value != null && n <= maxDistance) {
+            search.found(root.value, n);
+        }
+        search.walk(root, 1);
+        return search.best == null ? null : new Match<>((V) search.best, search.bound);
+    }
+
+    private static final class Search {
+        final char[] word;
+        final int[][] rows;
+        Object best;
+        int bound;
+
+        Search(char[] word, int[][] rows, int maxDistance) {
+            this.word = word;
+            this.rows = rows;
+            this.bound = maxDistance;
+        }
+
+        void found(Object value, int distance) {
+            if (best == null || distance < bound) {
+                best = value;
+                bound = distance;
+            }
+        }
+
+        void walk(Node node, int depth) {
+            if (depth >= rows.length) {
+                return;
+            }
+            int[] prev = rows[depth - 1];
+            int[] row = rows[depth];
+            int n = word.length;
+            for (int k = 0; k < node.keys.length; k++) {
+                char c = node.keys[k];
+                row[0] = depth;
+                int min = row[0];
+                for (int i = 1; i <= n; i++) {
+                    int cost = word[i - 1] == c ? 0 : 1;
+                    int v = Math.min(Math.min(row[i - 1] + 1, prev[i] + 1), prev[i - 1] + cost);
+                    row[i] = v;
+                    min = Math.min(min, v);
+                }
+                Node child = node.children[k];
+                if (child.value != null && row[n] <= bound) {
+                    found(child.value, row[n]);
+                }
+                // Every completion of this prefix is at least min away
+                if (min < bound || (best == null && min <= bound)) {
+                    walk(child, depth + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fold case the same way as {@link String#regionMatches(boolean, int, String, int, int)}
+     */
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
@@ -30,7 +30,11 @@ class WebSocketConfig implements WebSocketConfigurer {
     @Inject
     SocketHandler handler;
 
+    @Inject
+    RoomSettings settings;
+
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
-        registry.addHandler(handler, "/room");
+        registry.addHandler(handler, "/room")
+                .setHandshakeHandler(new CompressionHandshakeHandler(settings.getCompression()));
     }
 }
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bookmarks created on many threads at once (each thread plays a busy room):
+ * each room's own generator ({@link Message#newBookmarks(String)}), against
+ * one counter shared by every room, formatted the same way. Use {@code -t}
+ * to change the thread count.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class BookmarkBenchmark {
+
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class Room {
+        final BookmarkGenerator bookmarks = Message.newBookmarks("room" + Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    public String perRoom(Room room) {
+        return room.bookmarks.next();
+    }
+
+    @Benchmark
+    public String sharedCounter(Room room) {
+        return room.bookmarks.format(COUNTER.incrementAndGet());
+    }
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BookmarkGeneratorTest {
+
+    private final BookmarkGenerator bookmarks = new BookmarkGenerator("room-");
+
+    @Test
+    public void testFormat() {
+        Assert.assertEquals("room-0", bookmarks.format(0));
+        Assert.assertEquals("room-7", bookmarks.format(7));
+        Assert.assertEquals("room-1234567890123", bookmarks.format(1234567890123L));
+        Assert.assertEquals("room-" + Long.MAX_VALUE, bookmarks.format(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testIncreasing() {
+        Assert.assertEquals("room-1", bookmarks.next());
+        long last = 1;
+        for (int i = 0; i < 3000; i++) {
+            long n = number(bookmarks.next());
+            Assert.assertTrue(n > last);
+            last = n;
+        }
+    }
+
+    @Test
+    public void testIncreasingAcrossThreads() throws Exception {
+        // A room's work can move from one lane thread to another: its bookmarks must still go up
+        long before = number(bookmarks.next());
+        String[] other = new String[1];
+        Thread t = new Thread(() -> other[0] = bookmarks.next());
+        t.start();
+        t.join();
+        long onOther = number(other[0]);
+        Assert.assertTrue(onOther > before);
+        Assert.assertTrue(number(bookmarks.next()) > onOther);
+    }
+
+    @Test
+    public void testRoomsHaveTheirOwn() {
+        BookmarkGenerator room1 = Message.newBookmarks("room1");
+        BookmarkGenerator room2 = Message.newBookmarks("room2");
+        Assert.assertEquals("room-room1-1", room1.next());
+        Assert.assertEquals("room-room2-1", room2.next());
+        Assert.assertEquals("room-room1-2", room1.next());
+        Assert.assertEquals("Unhosted rooms keep the old prefix", "room-1", Message.newBookmarks(null).next());
+    }
+
+    private static long number(String bookmark) {
+        return Long.parseLong(bookmark.substring("room-".length()));
+    }
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broadcast one chat line to N sessions. Run with the GC profiler: the
+ * allocation rate per operation ({@code gc.alloc.rate.norm}) should stay flat
+ * as the session count grows, as the frame is encoded once per broadcast
+ * (and queued, rather than copied, for each session).
+ * See the Benchmarks section of the README for how to run it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    int sessionCount;
+
+    private SocketHandler handler;
+
+    @Setup
+    public void setup() throws Exception {
+        handler = new SocketHandler();
+        handler.postConstruct();
+        for (int i = 0; i < sessionCount; i++) {
+            handler.afterConnectionEstablished(new NullSession("s" + i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.preDestroy();
+    }
+
+    @Benchmark
+    public Message broadcastChat() {
+        Message message = Message.createChatMessage("userName", "Just chatting with everyone in the room");
+        handler.sendMessage(message);
+        return message;
+    }
+
+    /**
+     * Session that discards everything sent to it
+     */
+    static class NullSession extends StubSession {
+        NullSession(String id) {
+            super(id);
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CommandRegistryTest {
+
+    private final RoomDescription description = new RoomDescription();
+    private final CommandRegistry registry = new CommandRegistry(description);
+    private final List<String> calls = new ArrayList<>();
+
+    private CommandRegistry.Command recording(String name) {
+        return (userId, username, content, argument, handler) -> calls.add(name + ":" + argument);
+    }
+
+    @Test
+    public void testCaseInsensitiveAndAliases() {
+        registry.register("/look", null, recording("look"), "/examine");
+
+        Assert.assertTrue(registry.dispatch("u", "n", "/LOOK", null));
+        Assert.assertTrue(registry.dispatch("u", "n", "  /Examine   the Room  ", null));
+        Assert.assertFalse(registry.dispatch("u", "n", "/looks stuff", null));
+        Assert.assertFalse(registry.dispatch("u", "n", "/loo", null));
+        Assert.assertFalse(registry.dispatch("u", "n", "", null));
+
+        Assert.assertEquals("[look:null, look:the Room]", calls.toString());
+        Assert.assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testAdvertised() {
+        registry.register("/go", null, recording("go"));
+        registry.register("/ping", "Does this work?", recording("ping"));
+
+        Assert.assertEquals("{\"/ping\":\"Does this work?\"}", description.getCommands().toString());
+
+        registry.unregister("/PING");
+        Assert.assertTrue(description.getCommands().isEmpty());
+        Assert.assertFalse(registry.dispatch("u", "n", "/ping", null));
+        Assert.assertTrue(registry.dispatch("u", "n", "/go n", null));
+    }
+
+    @Test
+    public void testUnregisterRemovesAliases() {
+        registry.register("/look", null, recording("look"), "/examine", "/l");
+        registry.unregister("/l");
+        Assert.assertFalse(registry.dispatch("u", "n", "/l", null));
+        Assert.assertTrue(registry.dispatch("u", "n", "/examine", null));
+
+        registry.unregister("/look");
+        Assert.assertEquals(0, registry.size());
+        Assert.assertFalse(registry.dispatch("u", "n", "/examine", null));
+    }
+
+    @Test
+    public void testManyCommands() {
+        for (int i = 0; i < 100; i++) {
+            registry.register("/cmd" + i, null, recording("cmd" + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(registry.dispatch("u", "n", "/CMD" + i + " x", null));
+        }
+        Assert.assertEquals(100, calls.size());
+        Assert.assertEquals("cmd42:x", calls.get(42));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVerbWithSpace() {
+        registry.register("/two words", null, recording("bad"));
+    }
+
+    @Test
+    public void testSuggest() {
+        registry.register("/look", null, recording("look"), "/examine");
+        registry.register("/ping", "Does this work?", recording("ping"));
+        registry.addSuggestion("/north", "/go North");
+
+        Assert.assertEquals("/look", registry.suggest("/lok around"));
+        Assert.assertEquals("/examine", registry.suggest("  /EXAMNIE"));
+        Assert.assertEquals("/go North", registry.suggest("/nroth"));
+        Assert.assertNull(registry.suggest("/dance"));
+        Assert.assertNull(registry.suggest("/"));
+
+        registry.unregister("/look");
+        Assert.assertNull(registry.suggest("/lok"));
+        Assert.assertNull(registry.suggest("/examne"));
+        Assert.assertEquals("/ping", registry.suggest("/pong"));
+    }
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.socket.WebSocketExtension;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class CompressionHandshakeHandlerTest {
+
+    private final List<WebSocketExtension> extensions = Arrays.asList(
+            new WebSocketExtension(Deflation.PERMESSAGE_DEFLATE), new WebSocketExtension("x-other"));
+
+    private final RoomSettings.Compression settings = new RoomSettings.Compression();
+
+    @Test
+    public void testAcceptedByDefault() {
+        Assert.assertEquals(extensions, filter(null));
+    }
+
+    @Test
+    public void testClientOptOut() {
+        List<WebSocketExtension> accepted = filter("compress=false");
+        Assert.assertEquals(1, accepted.size());
+        Assert.assertEquals("x-other", accepted.get(0).getName());
+    }
+
+    @Test
+    public void testDisabled() {
+        settings.setEnabled(false);
+        List<WebSocketExtension> accepted = filter("compress=true");
+        Assert.assertEquals(1, accepted.size());
+        Assert.assertEquals("x-other", accepted.get(0).getName());
+    }
+
+    private List<WebSocketExtension> filter(String query) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/room");
+        request.setQueryString(query);
+        return new CompressionHandshakeHandler(settings)
+                .filterRequestedExtensions(new ServletServerHttpRequest(request), extensions, extensions);
+    }
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ExitTableTest {
+
+    private final RoomText text = RoomText.forLocale("");
+
+    @Test
+    public void testDefaults() {
+        ExitTable exits = ExitTable.of(new RoomSettings().getExits(), text);
+        for (String direction : new String[]{"n", "N", "north", "NORTH", "North"}) {
+            ExitTable.Exit exit = exits.find(direction);
+            Assert.assertNotNull(direction, exit);
+            Assert.assertEquals("n", exit.getId());
+            Assert.assertEquals(String.format(RoomImplementation.GO_FORTH, "North"), exit.getDeparture());
+        }
+        Assert.assertNull(exits.find("up"));
+        Assert.assertNull(exits.find("nort"));
+        Assert.assertNull(exits.find(null));
+        Assert.assertEquals("{n=North, s=South, e=East, w=West}", exits.getDescriptions().toString());
+    }
+
+    @Test
+    public void testCustomDoors() {
+        RoomSettings settings = new RoomSettings();
+        RoomSettings.Exit up = new RoomSettings.Exit();
+        up.setName("Up");
+        up.setAliases(Arrays.asList("u", " ladder "));
+        up.setDoor("A rickety ladder");
+        settings.getExits().put("u", up);
+        settings.getExits().get("n").setDoor("A heavy oak door");
+
+        ExitTable exits = ExitTable.of(settings.getExits(), text);
+        Assert.assertSame(exits.find("u"), exits.find("Ladder"));
+        Assert.assertEquals("u", exits.find("UP").getId());
+        Assert.assertEquals("A heavy oak door", exits.getDescriptions().get("n"));
+        Assert.assertEquals("A rickety ladder", exits.getDescriptions().get("u"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAliasClash() {
+        RoomSettings settings = new RoomSettings();
+        settings.getExits().get("s").getAliases().add("North");
+        ExitTable.of(settings.getExits(), text);
+    }
+
+    @Test
+    public void testIgnoreCaseMapRegions() {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        for (int i = 0; i < 50; i++) {
+            map.put("key" + i, i);
+        }
+        map.put("KEY7", 700);
+        IgnoreCaseMap<Integer> index = IgnoreCaseMap.copyOf(map);
+
+        Assert.assertEquals(50, index.size());
+        Assert.assertEquals(700, (int) index.get("key7"));
+        Assert.assertEquals(42, (int) index.get("go Key42 now", 3, 8));
+        Assert.assertEquals(4, (int) index.get("go Key42 now", 3, 7));
+        Assert.assertNull(index.get("go Key42 now", 3, 6));
+        Assert.assertNull(IgnoreCaseMap.empty().get("anything"));
+    }
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.socket.PingMessage;
+
+public class IdleReaperTest {
+
+    private long now = 1000;
+    private final TimerWheel wheel = new TimerWheel(10, 64, () -> now);
+    private final SessionRegistry sessions = new SessionRegistry();
+    private final RoomSettings.Heartbeat settings = new RoomSettings.Heartbeat();
+
+    private IdleReaper reaper;
+    private StubSession session;
+    private SessionEntry entry;
+
+    @Before
+    public void before() {
+        settings.setPingAfterMs(100);
+        settings.setIdleTimeoutMs(300);
+        reaper = new IdleReaper(wheel, sessions, settings, () -> now, Runnable::run);
+
+        session = new StubSession("s1");
+        entry = sessions.add(new SessionEntry(session, Runnable::run, null, new RoomSettings.Outbound(), 0, null, null));
+        reaper.watch(entry);
+    }
+
+    @Test
+    public void testPingThenReap() {
+        advanceTo(1100);
+        Assert.assertEquals(1, reaper.getPings());
+        Assert.assertTrue(session.sent.get(0) instanceof PingMessage);
+        Assert.assertTrue(session.isOpen());
+
+        advanceTo(1300);
+        Assert.assertEquals(1, reaper.getReaped());
+        Assert.assertFalse(session.isOpen());
+        Assert.assertEquals(IdleReaper.IDLE, session.closeStatus);
+    }
+
+    @Test
+    public void testActivityKeepsSessionOpen() {
+        for (int i = 0; i < 10; i++) {
+            advanceTo(now + 90);
+            reaper.touch(entry);
+        }
+        Assert.assertEquals(0, reaper.getPings());
+        Assert.assertEquals(0, reaper.getReaped());
+        Assert.assertTrue(session.isOpen());
+    }
+
+    @Test
+    public void testPongAfterPing() {
+        advanceTo(1150);
+        Assert.assertEquals(1, reaper.getPings());
+        reaper.touch(entry);
+
+        advanceTo(1400);
+        Assert.assertEquals(0, reaper.getReaped());
+        Assert.assertTrue(session.isOpen());
+    }
+
+    @Test
+    public void testClosedSessionIsForgotten() {
+        sessions.remove(entry.getId());
+        advanceTo(2000);
+        Assert.assertEquals(0, reaper.getPings());
+        Assert.assertEquals(0, reaper.getReaped());
+    }
+
+    private void advanceTo(long time) {
+        while (now < time) {
+            now += 5;
+            wheel.advance();
+        }
+    }
+}
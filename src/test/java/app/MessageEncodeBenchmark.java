@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Create and encode an outbound chat frame: the {@code JsonGenerator} path
+ * used by {@link Message#createChatMessage(String, String)} against the
+ * previous builder/toString/StringBuilder path (copied below).
+ * Run with the GC profiler to compare allocation per frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageEncodeBenchmark {
+
+    private static final String USERNAME = "DevUser";
+    private static final String CONTENT = "Just chatting with everyone in the room";
+
+    @Benchmark
+    public String generator() {
+        return Message.createChatMessage(USERNAME, CONTENT).encode();
+    }
+
+    @Benchmark
+    public String builder() {
+        JsonObjectBuilder payload = Json.createObjectBuilder();
+        payload.add("type", "chat");
+        payload.add(Message.USERNAME, USERNAME);
+        payload.add(Message.CONTENT, CONTENT);
+        payload.add("bookmark", "room-" + System.nanoTime());
+        String json = payload.build().toString();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(Message.Target.player.name()).append(',').append('*').append(',').append(json);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MessageHistoryTest {
+
+    private static MessageHistory history(int size, int maxMessageBytes) {
+        RoomSettings.History settings = new RoomSettings.History();
+        settings.setSize(size);
+        settings.setMaxMessageBytes(maxMessageBytes);
+        return new MessageHistory(settings);
+    }
+
+    private static List<Message> chat(MessageHistory history, int count) {
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Message m = Message.createChatMessage("user", "message " + i);
+            Assert.assertTrue(history.record(m));
+            sent.add(m);
+        }
+        return sent;
+    }
+
+    @Test
+    public void testSince() {
+        MessageHistory history = history(8, 4096);
+        List<Message> sent = chat(history, 5);
+
+        Assert.assertEquals(sent.subList(3, 5), history.since(sent.get(2).getBookmark()));
+        Assert.assertTrue(history.since(sent.get(4).getBookmark()).isEmpty());
+        Assert.assertTrue("No bookmark, no catch-up", history.since(null).isEmpty());
+        Assert.assertEquals("Unknown bookmark: everything kept", sent, history.since("room-unknown"));
+    }
+
+    @Test
+    public void testBounded() {
+        MessageHistory history = history(5, 4096);
+        Assert.assertEquals(8, history.getCapacity());
+        List<Message> sent = chat(history, 20);
+
+        Assert.assertEquals(20, history.getRecorded());
+        Assert.assertEquals(sent.subList(12, 20), history.since("room-unknown"));
+        Assert.assertEquals("Overwritten bookmark: everything kept",
+                sent.subList(12, 20), history.since(sent.get(3).getBookmark()));
+        Assert.assertEquals(sent.subList(15, 20), history.since(sent.get(14).getBookmark()));
+    }
+
+    @Test
+    public void testNotKept() {
+        MessageHistory history = history(8, 100);
+        Assert.assertFalse("Too large", history.record(Message.createChatMessage("user", new String(new char[200]).replace('\0', 'x'))));
+        Assert.assertFalse("No bookmark", history.record(Message.createExitMessage("user", "n")));
+        Assert.assertEquals(0, history.getRecorded());
+
+        // The limit is in bytes: 60 characters of ASCII fit, 60 euro signs (3 bytes each) don't
+        MessageHistory bytes = history(8, 200);
+        Assert.assertTrue(bytes.record(Message.createChatMessage("user", new String(new char[60]).replace('\0', 'x'))));
+        Assert.assertFalse("Too large once encoded", bytes.record(
+                Message.createChatMessage("user", new String(new char[60]).replace('\0', '\u20ac'))));
+
+        MessageHistory off = history(0, 4096);
+        Assert.assertFalse(off.record(Message.createChatMessage("user", "hi")));
+        Assert.assertTrue(off.since("room-1").isEmpty());
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        MessageHistory history = history(64, 4096);
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    history.record(Message.createChatMessage("user", "hi"));
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread t : writers) {
+            t.join();
+        }
+        Assert.assertEquals(4000, history.getRecorded());
+        Assert.assertEquals(64, history.since("room-unknown").size());
+    }
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.json.JsonObject;
+import javax.websocket.DecodeException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse the header of an inbound chat frame: the in-place parser in
+ * {@link Message#Message(String)} against the previous split/substring/trim
+ * parser (copied below). Then get what the room needs from its body: the
+ * streaming {@link Message#getFields()} against a full JsonObject.
+ * Run with the GC profiler to compare allocation per frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageParseBenchmark {
+
+    private final String frame = Message.createRoomMessage("roomId", "dummy.DevUser",
+            "DevUser", "Just chatting with everyone in the room").encode();
+
+    @Benchmark
+    public Message inPlace() throws DecodeException {
+        return new Message(frame);
+    }
+
+    @Benchmark
+    public void legacy(Blackhole bh) throws DecodeException {
+        ArrayList<String> list = new ArrayList<>(3);
+
+        int brace = frame.indexOf('{');
+        int i = 0;
+        int j = frame.indexOf(',');
+        while (j > 0 && j < brace) {
+            list.add(frame.substring(i, j).trim());
+            i = j + 1;
+            j = frame.indexOf(',', i);
+        }
+
+        if (list.isEmpty()) {
+            throw new DecodeException(frame, "Badly formatted payload");
+        }
+
+        bh.consume(frame.substring(i).trim());
+        bh.consume(Message.Target.valueOf(list.get(0)));
+        bh.consume(list.size() > 1 ? list.get(1) : "");
+    }
+
+    @Benchmark
+    public void bodyFields(Blackhole bh) throws DecodeException {
+        Message.Fields fields = new Message(frame).getFields();
+        bh.consume(fields.getUserId());
+        bh.consume(fields.getUsername());
+        bh.consume(fields.getContent());
+    }
+
+    @Benchmark
+    public void bodyTree(Blackhole bh) throws DecodeException {
+        JsonObject body = new Message(frame).getParsedBody();
+        bh.consume(body.getString(Message.USER_ID));
+        bh.consume(body.getString(Message.USERNAME));
+        bh.consume(body.getString(Message.CONTENT));
+    }
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Room text rendered with a compiled {@link MessageTemplate}, versus
+ * {@code String.format} (which parses the pattern on every call).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageTemplateBenchmark {
+
+    private final String username = "Adventurous Player";
+    private final MessageTemplate helloAll = MessageTemplate.compile(RoomImplementation.HELLO_ALL);
+    private final MessageTemplate unknownCommand = MessageTemplate.compile(RoomImplementation.UNKNOWN_COMMAND);
+
+    @Benchmark
+    public String helloTemplate() {
+        return helloAll.render(username);
+    }
+
+    @Benchmark
+    public String helloFormat() {
+        return String.format(RoomImplementation.HELLO_ALL, username);
+    }
+
+    @Benchmark
+    public String unknownCommandTemplate() {
+        return unknownCommand.render("/dance wildly");
+    }
+
+    @Benchmark
+    public String unknownCommandFormat() {
+        return String.format(RoomImplementation.UNKNOWN_COMMAND, "/dance wildly");
+    }
+}
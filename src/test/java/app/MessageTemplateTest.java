@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageTemplateTest {
+
+    @Test
+    public void testMatchesStringFormat() {
+        for (String pattern : new String[]{RoomImplementation.HELLO_ALL, RoomImplementation.GOODBYE_ALL,
+                RoomImplementation.UNKNOWN_COMMAND, RoomImplementation.UNKNOWN_DIRECTION, RoomImplementation.GO_FORTH,
+                "%s", "", "100%% %s%s", "no arguments"}) {
+            MessageTemplate t = MessageTemplate.compile(pattern);
+            if (t.getArgCount() <= 1) {
+                Assert.assertEquals(pattern, String.format(pattern, "Arg"), t.render("Arg"));
+            }
+            Assert.assertEquals(pattern, String.format(pattern, "a", "b"), t.render("a", "b"));
+        }
+        Assert.assertEquals("null is here", MessageTemplate.compile(RoomImplementation.HELLO_ALL).render((String) null));
+    }
+
+    @Test
+    public void testPositional() {
+        MessageTemplate t = MessageTemplate.compile("%2$s then %1$s, %s");
+        Assert.assertEquals(2, t.getArgCount());
+        Assert.assertEquals(String.format("%2$s then %1$s, %s", "one", "two"), t.render("one", "two"));
+    }
+
+    @Test
+    public void testRejected() {
+        for (String pattern : new String[]{"%d", "%", "%1s", "%1$d", "%-5s"}) {
+            try {
+                MessageTemplate.compile(pattern);
+                Assert.fail("Expected " + pattern + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            MessageTemplate.compile("%s and %s").render("one");
+            Assert.fail("Expected missing argument to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLocalizedText() {
+        RoomText fr = RoomText.forLocale("fr");
+        Assert.assertEquals("Bob est l\u00e0", fr.helloAll.render("Bob"));
+        Assert.assertEquals("Bienvenue !", fr.helloUser);
+        Assert.assertEquals("Missing keys keep the default text",
+                String.format(RoomImplementation.GO_FORTH, "North"), fr.goForth.render("North"));
+        Assert.assertSame(fr, RoomText.forLocale("fr"));
+
+        RoomText defaults = RoomText.forLocale("");
+        Assert.assertEquals(RoomImplementation.HELLO_USER, defaults.helloUser);
+        Assert.assertEquals(RoomText.forLocale("de").helloUser, defaults.helloUser);
+    }
+}
@@ -23,6 +23,10 @@ import org.junit.Test;
 import org.junit.rules.TestName;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.websocket.DecodeException;
+
 /**
  * What goes in, must come out?
  */
@@ -262,4 +266,105 @@ public class MessageTest {
         Message m2 = new Message(s);
         Assert.assertEquals(m1, m2);
     }
+
+    @Test
+    public void testParseHeader() throws Exception {
+        Message m = new Message(" room , roomId ,{\"userId\":\"user1\"} ");
+        Assert.assertEquals(Message.Target.room, m.getTarget());
+        Assert.assertEquals("roomId", m.getTargetId());
+        Assert.assertEquals("{\"userId\":\"user1\"}", m.getPayload());
+        Assert.assertEquals("user1", m.getParsedBody().getString(Message.USER_ID));
+        Assert.assertEquals("room,roomId,{\"userId\":\"user1\"}", m.encode());
+    }
+
+    @Test
+    public void testParseExtraHeaderSegments() throws Exception {
+        Message m = new Message("room,roomId,extra,{\"a\":\"b,c\"}");
+        Assert.assertEquals("roomId", m.getTargetId());
+        Assert.assertEquals("{\"a\":\"b,c\"}", m.getPayload());
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testParseUnknownTarget() throws Exception {
+        new Message("roomz,roomId,{}");
+    }
+
+    @Test(expected = DecodeException.class)
+    public void testParseNoHeader() throws Exception {
+        new Message("{\"a\":\"b,c\"}");
+    }
+
+    @Test
+    public void testFields() throws Exception {
+        Message m = new Message("room,roomId,{\"extra\":{\"userId\":\"nested\",\"list\":[\"content\"]},"
+                + "\"userId\":\"user1\",\"username\":\"User 1\",\"content\":\"hi\"}");
+        Message.Fields fields = m.getFields();
+        Assert.assertEquals("user1", fields.getUserId());
+        Assert.assertEquals("User 1", fields.getUsername());
+        Assert.assertEquals("hi", fields.getContent());
+        Assert.assertSame("Fields should be extracted once", fields, m.getFields());
+    }
+
+    @Test
+    public void testFieldsMissingOrNotStrings() throws Exception {
+        Message m = new Message("roomHello,roomId,{\"userId\":42,\"username\":\"User 1\",\"version\":2}");
+        Assert.assertNull(m.getUserId());
+        Assert.assertEquals("User 1", m.getFields().getUsername());
+        Assert.assertNull(m.getFields().getContent());
+    }
+
+    @Test
+    public void testFieldsBookmark() throws Exception {
+        Message m = new Message("roomJoin,roomId,{\"userId\":\"user1\",\"username\":\"User 1\","
+                + "\"version\":2,\"bookmark\":\"room-42\"}");
+        Assert.assertEquals("room-42", m.getFields().getBookmark());
+
+        // A client can put the fields in any order
+        Message room = new Message("room,roomId,{\"bookmark\":\"room-42\",\"userId\":\"user1\","
+                + "\"username\":\"User 1\",\"content\":\"/look\"}");
+        Assert.assertEquals("/look", room.getFields().getContent());
+        Message join = new Message("roomJoin,roomId,{\"content\":\"hi\",\"userId\":\"user1\","
+                + "\"username\":\"User 1\",\"bookmark\":\"room-42\"}");
+        Assert.assertEquals("room-42", join.getFields().getBookmark());
+
+        Message chat = Message.createChatMessage("User 1", "hi");
+        Assert.assertNotNull(chat.getBookmark());
+        Assert.assertTrue(chat.encode().contains("\"bookmark\":\"" + chat.getBookmark() + "\""));
+        Assert.assertNull(Message.createExitMessage("user1", "n").getBookmark());
+    }
+
+    @Test
+    public void testParsedBodyCached() throws Exception {
+        Message m = new Message(Message.createRoomMessage("roomId", "user1", "User 1", "hi").encode());
+        Assert.assertSame(m.getParsedBody(), m.getParsedBody());
+        Assert.assertEquals("user1", m.getUserId());
+    }
+
+    @Test
+    public void testGeneratedMatchesBuilder() throws Exception {
+        String tricky = "Quotes \" and \\ slashes / tabs \t newlines \n unicode \u00e9\u2603 control \u0001";
+        Message m = Message.createChatMessage("user\"name", tricky);
+        JsonObject expected = Json.createObjectBuilder()
+                .add("type", "chat")
+                .add(Message.USERNAME, "user\"name")
+                .add(Message.CONTENT, tricky)
+                .add("bookmark", m.getParsedBody().getString("bookmark"))
+                .build();
+        Assert.assertEquals("player,*," + expected.toString(), m.encode());
+    }
+
+    @Test
+    public void testBroadcastRepeatedKeys() throws Exception {
+        Message m = Message.createBroadcastEvent("all", "user1", "first", "*", "everyone", "user1", "second");
+        JsonObject expected = Json.createObjectBuilder()
+                .add("type", "event")
+                .add(Message.CONTENT, Json.createObjectBuilder()
+                        .add("*", "all")
+                        .add("user1", "first")
+                        .add("*", "everyone")
+                        .add("user1", "second"))
+                .add("bookmark", m.getParsedBody().getString("bookmark"))
+                .build();
+        Assert.assertEquals("player,*," + expected.toString(), m.encode());
+    }
 }
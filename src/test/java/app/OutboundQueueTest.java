@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.Session;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BiFunction;
+
+public class OutboundQueueTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    /**
+     * Writer that only runs when asked: lets the test play a slow consumer
+     */
+    private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+    private final Executor writer = r -> {
+        synchronized (pending) {
+            pending.add(r);
+        }
+    };
+    private StubSession session;
+    private RoomSettings.Outbound settings;
+
+    @Before
+    public void before() {
+        System.out.println(" ===== " + testName.getMethodName());
+        session = new StubSession("s1");
+        settings = new RoomSettings.Outbound();
+        settings.setMaxMessages(3);
+    }
+
+    @Test
+    public void testWritesInOrder() {
+        OutboundQueue queue = new OutboundQueue(session, writer, null, settings, 1);
+        queue.offer(frame("a", false));
+        queue.offer(frame("b", true));
+
+        Assert.assertEquals("Only one writer should be scheduled", 1, pendingSize());
+        Assert.assertEquals(2, queue.getDepth());
+        runWriter();
+
+        Assert.assertEquals(0, queue.getDepth());
+        Assert.assertEquals(2, queue.getSent());
+        Assert.assertEquals(Arrays.asList("a", "b"), sent());
+    }
+
+    @Test
+    public void testDropOldest() {
+        OutboundQueue queue = new OutboundQueue(session, writer, null, settings, 1);
+        for (String s : new String[]{"a", "b", "c", "d", "e"}) {
+            queue.offer(frame(s, false));
+        }
+        Assert.assertEquals(3, queue.getDepth());
+        Assert.assertEquals(2, queue.getDropped());
+        runWriter();
+
+        Assert.assertEquals(Arrays.asList("c", "d", "e"), sent());
+    }
+
+    @Test
+    public void testDropChatFirst() {
+        settings.setOverflow(OutboundQueue.OverflowPolicy.DROP_CHAT_FIRST);
+        OutboundQueue queue = new OutboundQueue(session, writer, null, settings, 1);
+        queue.offer(frame("event1", false));
+        queue.offer(frame("chat1", true));
+        queue.offer(frame("event2", false));
+        queue.offer(frame("chat2", true));
+        queue.offer(frame("event3", false));
+        runWriter();
+
+        Assert.assertEquals(2, queue.getDropped());
+        Assert.assertEquals(Arrays.asList("event1", "event2", "event3"), sent());
+    }
+
+    @Test
+    public void testByteLimit() {
+        settings.setMaxMessages(100);
+        settings.setMaxBytes(10);
+        OutboundQueue queue = new OutboundQueue(session, writer, null, settings, 1);
+        queue.offer(frame("0123456789", false));
+        queue.offer(frame("abcde", false));
+
+        Assert.assertEquals(1, queue.getDepth());
+        Assert.assertEquals(5, queue.getQueuedBytes());
+        Assert.assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    public void testCloseWhenBehind() {
+        settings.setOverflow(OutboundQueue.OverflowPolicy.CLOSE);
+        OutboundQueue queue = new OutboundQueue(session, writer, null, settings, 1);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(queue.offer(frame("m" + i, false)));
+        }
+        Assert.assertFalse(queue.offer(frame("m3", false)));
+        Assert.assertTrue("The writer closes the session, not the caller", session.isOpen());
+
+        runWriter();
+        Assert.assertFalse(session.isOpen());
+        Assert.assertEquals(OutboundQueue.OVERFLOW, session.closeStatus);
+        Assert.assertEquals(0, queue.getDepth());
+        Assert.assertFalse("Closed queue should refuse frames", queue.offer(frame("m4", false)));
+    }
+
+    @Test
+    public void testSizeInBytes() {
+        OutboundFrame frame = OutboundFrame.of(Message.createChatMessage("User 1", "D\u00e9j\u00e0 vu \u2713 \ud83d\ude00"));
+        Assert.assertEquals("Limits are in bytes, as written", frame.getEncodedSize(), frame.getSize());
+    }
+
+    @Test
+    public void testCoalesceWithinWindow() throws Exception {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            settings.setCoalesceWindowMs(50);
+            OutboundQueue queue = new OutboundQueue(session, writer, timer, settings, 1);
+            queue.offer(frame("a", false));
+            queue.offer(frame("b", false));
+            queue.offer(frame("c", false));
+            Assert.assertEquals("Writer should wait for the window to close", 0, pendingSize());
+
+            long end = System.currentTimeMillis() + 5000;
+            while (pendingSize() == 0 && System.currentTimeMillis() < end) {
+                Thread.sleep(5);
+            }
+            runWriter();
+
+            Assert.assertEquals(Arrays.asList("a", "b", "c"), sent());
+            Assert.assertEquals("Frames gathered in one window should be written as one batch", 1, queue.getBatches());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCoalesceSizeCap() {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            settings.setCoalesceWindowMs(60000);
+            settings.setCoalesceBytes(6);
+            OutboundQueue queue = new OutboundQueue(session, writer, timer, settings, 1);
+            queue.offer(frame("abc", false));
+            Assert.assertEquals(0, pendingSize());
+            queue.offer(frame("def", false));
+            Assert.assertEquals("Writer should start once the size cap is reached", 1, pendingSize());
+
+            runWriter();
+            Assert.assertEquals(Arrays.asList("abc", "def"), sent());
+            Assert.assertEquals(1, queue.getBatches());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDeflateCounters() {
+        session.extensions = Collections.singletonList(new WebSocketExtension(Deflation.PERMESSAGE_DEFLATE));
+        OutboundQueue queue = new OutboundQueue(session, writer, null, settings, 1);
+        Assert.assertTrue(queue.isCompressed());
+
+        StringBuilder location = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            location.append("{\"/examine\": \"Examine an item\"},");
+        }
+        queue.offer(frame(location.toString(), false));
+        runWriter();
+
+        Assert.assertEquals(location.length(), queue.getBytesBeforeDeflate());
+        Assert.assertTrue("Repetitive JSON should compress well: " + queue.getEstimatedBytesAfterDeflate(),
+                queue.getEstimatedBytesAfterDeflate() < location.length() / 4);
+    }
+
+    @Test
+    public void testDeflateSampled() {
+        session.extensions = Collections.singletonList(new WebSocketExtension(Deflation.PERMESSAGE_DEFLATE));
+        settings.setMaxMessages(100);
+        OutboundQueue queue = new OutboundQueue(session, writer, null, settings, 4);
+
+        List<OutboundFrame> frames = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            OutboundFrame f = frame("{\"/examine\": \"Examine an item\"}, {\"/examine\": \"Examine an item\"} " + i, false);
+            frames.add(f);
+            queue.offer(f);
+        }
+        runWriter();
+
+        Assert.assertEquals(8, queue.getSent());
+        Assert.assertTrue(queue.getEstimatedBytesAfterDeflate() > 0);
+        Assert.assertTrue(queue.getEstimatedBytesAfterDeflate() < queue.getBytesBeforeDeflate());
+        int measured = 0;
+        for (OutboundFrame f : frames) {
+            if (f.isEstimated()) {
+                measured++;
+            }
+        }
+        Assert.assertEquals("Only 1 in 4 frames should be deflated again", 2, measured);
+    }
+
+    @Test
+    public void testDeflateNotMeasured() {
+        session.extensions = Collections.singletonList(new WebSocketExtension(Deflation.PERMESSAGE_DEFLATE));
+        OutboundQueue queue = new OutboundQueue(session, writer, null, settings, 0);
+        OutboundFrame f = frame("{\"/examine\": \"Examine an item\"}", false);
+        queue.offer(f);
+        runWriter();
+
+        Assert.assertEquals(f.getSize(), queue.getBytesBeforeDeflate());
+        Assert.assertEquals(0, queue.getEstimatedBytesAfterDeflate());
+        Assert.assertFalse(f.isEstimated());
+    }
+
+    @Test
+    public void testLonePingFlushed() {
+        BatchingSession batching = new BatchingSession("s2");
+        OutboundQueue queue = new OutboundQueue(batching, writer, null, settings, 1);
+        Assert.assertTrue(batching.batchingAllowed);
+
+        queue.offer(new OutboundFrame(new PingMessage(), 0, false));
+        runWriter();
+
+        Assert.assertTrue("Nothing should be left in the container's buffer", batching.buffered.isEmpty());
+        Assert.assertEquals(1, batching.sent.size());
+        Assert.assertTrue(batching.sent.get(0) instanceof PingMessage);
+        Assert.assertEquals(1, queue.getBatches());
+    }
+
+    private int pendingSize() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    private void runWriter() {
+        Runnable r;
+        while ((r = next()) != null) {
+            r.run();
+        }
+    }
+
+    private Runnable next() {
+        synchronized (pending) {
+            return pending.poll();
+        }
+    }
+
+    private List<String> sent() {
+        List<String> result = new ArrayList<>();
+        for (WebSocketMessage<?> m : session.sent) {
+            result.add(m.getPayload().toString());
+        }
+        return result;
+    }
+
+    private static OutboundFrame frame(String text, boolean chat) {
+        return new OutboundFrame(new TextMessage(text), text.length(), chat);
+    }
+
+    /**
+     * Session backed by a JSR-356 remote that, like Tomcat's, holds every
+     * frame (control frames included) while batching is allowed, until
+     * {@code flushBatch()}
+     */
+    private static class BatchingSession extends StubSession implements NativeWebSocketSession {
+        final List<WebSocketMessage<?>> buffered = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean batchingAllowed;
+        private final Session nativeSession;
+
+        BatchingSession(String id) {
+            super(id);
+            RemoteEndpoint.Basic remote = proxy(RemoteEndpoint.Basic.class, (method, args) -> {
+                switch (method.getName()) {
+                    case "setBatchingAllowed":
+                        batchingAllowed = (Boolean) args[0];
+                        return null;
+                    case "getBatchingAllowed":
+                        return batchingAllowed;
+                    case "flushBatch":
+                        synchronized (buffered) {
+                            sent.addAll(buffered);
+                            buffered.clear();
+                        }
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+            nativeSession = proxy(Session.class, (method, args) -> {
+                if (method.getName().equals("getBasicRemote")) {
+                    return remote;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            if (batchingAllowed) {
+                buffered.add(message);
+            } else {
+                super.sendMessage(message);
+            }
+        }
+
+        @Override
+        public Object getNativeSession() {
+            return nativeSession;
+        }
+
+        @Override
+        public <T> T getNativeSession(Class<T> requiredType) {
+            return requiredType.isInstance(nativeSession) ? requiredType.cast(nativeSession) : null;
+        }
+
+        private static <T> T proxy(Class<T> type, BiFunction<Method, Object[], Object> handler) {
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                    (p, method, args) -> handler.apply(method, args)));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class PartitionedDispatcherTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private PartitionedDispatcher dispatcher;
+
+    @Before
+    public void before() {
+        System.out.println(" ===== " + testName.getMethodName());
+        dispatcher = new PartitionedDispatcher(4, 16, RoomThreads.named("test-lane"));
+    }
+
+    @After
+    public void after() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testSameKeyKeepsOrder() throws Exception {
+        int count = 1000;
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(count);
+
+        for (int i = 0; i < count; i++) {
+            final int n = i;
+            dispatcher.executor("user1").execute(() -> {
+                seen.add(n);
+                done.countDown();
+            });
+        }
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i, (int) seen.get(i));
+        }
+        Assert.assertEquals(count, dispatcher.getProcessed(dispatcher.laneFor("user1")));
+    }
+
+    @Test
+    public void testBlockedLaneDoesNotBlockOthers() throws Exception {
+        String slowKey = "slow";
+        String fastKey = null;
+        for (int i = 0; fastKey == null; i++) {
+            if (dispatcher.laneFor("user" + i) != dispatcher.laneFor(slowKey)) {
+                fastKey = "user" + i;
+            }
+        }
+
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(1);
+        dispatcher.executor(slowKey).execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        dispatcher.executor(slowKey).execute(() -> {
+        });
+        dispatcher.executor(fastKey).execute(fastDone::countDown);
+
+        Assert.assertTrue("Other lanes should keep going", fastDone.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, dispatcher.getDepth(dispatcher.laneFor(slowKey)));
+        release.countDown();
+    }
+
+    @Test
+    public void testNoWaitRefusesWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        Executor noWait = dispatcher.executorNoWait("user1");
+        noWait.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 16; i++) {
+            noWait.execute(() -> {
+            });
+        }
+
+        try {
+            noWait.execute(() -> {
+            });
+            Assert.fail("A full lane should refuse, rather than wait");
+        } catch (RejectedExecutionException e) {
+            // expected
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testLaneSurvivesError() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.executor("user1").execute(() -> {
+            throw new AssertionError("boom");
+        });
+        dispatcher.executor("user1").execute(done::countDown);
+
+        Assert.assertTrue("Lane should keep running after an error", done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDefaultLaneCount() {
+        PartitionedDispatcher d = new PartitionedDispatcher(0, 1, RoomThreads.named("test-default"));
+        try {
+            Assert.assertEquals(Runtime.getRuntime().availableProcessors(), d.getLaneCount());
+        } finally {
+            d.shutdown();
+        }
+    }
+}
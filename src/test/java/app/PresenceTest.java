@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PresenceTest {
+
+    private long now = 1000;
+    private final Presence presence = new Presence(() -> now);
+
+    @Test
+    public void testSessionFanIn() {
+        Assert.assertTrue(presence.isEmpty());
+
+        presence.connected("user1", "One");
+        presence.connected("user1", "One");
+        Assert.assertEquals(1, presence.getPresentCount());
+        Assert.assertEquals(2, presence.get("user1").getConnections());
+
+        presence.disconnected("user1");
+        Assert.assertTrue("Still connected through another session", presence.get("user1").isPresent());
+        presence.disconnected("user1");
+        Assert.assertFalse(presence.get("user1").isPresent());
+        Assert.assertTrue(presence.isEmpty());
+        Assert.assertEquals(1, presence.size());
+
+        presence.disconnected("user1");
+        Assert.assertEquals(0, presence.get("user1").getConnections());
+        Assert.assertTrue(presence.isEmpty());
+    }
+
+    @Test
+    public void testRejoinAndLeave() {
+        presence.connected("user1", "One");
+        presence.connected("user2", "Two");
+        presence.disconnected("user1");
+        Assert.assertEquals(1, presence.getPresentCount());
+
+        now += 50;
+        presence.connected("user1", "One Renamed");
+        Assert.assertEquals(2, presence.getPresentCount());
+        Assert.assertEquals("One Renamed", presence.get("user1").getUsername());
+        Assert.assertEquals(now, presence.get("user1").getLastActivity());
+
+        presence.left("user1");
+        presence.left("user1");
+        Assert.assertNull(presence.get("user1"));
+        Assert.assertEquals(1, presence.getPresentCount());
+    }
+
+    @Test
+    public void testTouchWithoutConnection() {
+        presence.touch("user1", "One");
+        Assert.assertNull("No hello: not present, and not remembered", presence.get("user1"));
+        Assert.assertTrue(presence.isEmpty());
+
+        presence.connected("user1", "One");
+        presence.disconnected("user1");
+        now += 50;
+        presence.touch("user1", "One Renamed");
+        Assert.assertFalse("Parted players stay parted", presence.get("user1").isPresent());
+        Assert.assertEquals("One Renamed", presence.get("user1").getUsername());
+        Assert.assertEquals(now, presence.get("user1").getLastActivity());
+        Assert.assertTrue(presence.isEmpty());
+    }
+
+    @Test
+    public void testPruneParted() {
+        presence.connected("user1", "One");
+        presence.connected("user2", "Two");
+        presence.disconnected("user1");
+
+        now += Presence.PARTED_RETENTION_MS;
+        presence.prune();
+        Assert.assertNotNull("Not parted for long enough", presence.get("user1"));
+
+        now += 1;
+        presence.prune();
+        Assert.assertNull(presence.get("user1"));
+        Assert.assertNotNull("Present players are kept", presence.get("user2"));
+        Assert.assertEquals(1, presence.getPresentCount());
+    }
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTest {
+
+    private long now = 1000;
+    private final RoomSettings.RateLimit settings = new RoomSettings.RateLimit();
+
+    @Test
+    public void testBurstThenRate() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue("Burst message " + i, bucket.tryAcquire(now));
+        }
+        Assert.assertFalse(bucket.tryAcquire(now));
+
+        now += TimeUnit.MILLISECONDS.toNanos(100);
+        Assert.assertTrue("One token should be back after 100ms", bucket.tryAcquire(now));
+        Assert.assertFalse(bucket.tryAcquire(now));
+
+        now += TimeUnit.SECONDS.toNanos(1);
+        Assert.assertTrue(bucket.isFull(now));
+    }
+
+    @Test
+    public void testSessionAndUserLimits() {
+        settings.setSessionRate(1);
+        settings.setSessionBurst(3);
+        settings.setUserRate(1);
+        settings.setUserBurst(2);
+        RateLimiter limiter = new RateLimiter(settings, () -> now);
+        TokenBucket session = limiter.newSessionBucket();
+
+        Assert.assertTrue(limiter.tryAcquire(session, "user1"));
+        Assert.assertTrue(limiter.tryAcquire(session, "user1"));
+        Assert.assertFalse("user1 is over its limit", limiter.tryAcquire(session, "user1"));
+        Assert.assertEquals(1, limiter.getUserThrottled());
+
+        Assert.assertFalse("The session is over its limit", limiter.tryAcquire(session, "user2"));
+        Assert.assertEquals(1, limiter.getSessionThrottled());
+    }
+
+    @Test
+    public void testPrune() {
+        RateLimiter limiter = new RateLimiter(settings, () -> now);
+        limiter.tryAcquire(null, "user1");
+        limiter.prune();
+        Assert.assertEquals(1, limiter.getUserCount());
+
+        now += TimeUnit.SECONDS.toNanos(1);
+        limiter.prune();
+        Assert.assertEquals(0, limiter.getUserCount());
+    }
+
+    @Test
+    public void testNoSessionLimit() {
+        settings.setSessionRate(0);
+        Assert.assertNull(new RateLimiter(settings, () -> now).newSessionBucket());
+    }
+}
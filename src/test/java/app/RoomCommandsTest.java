@@ -217,6 +217,9 @@ public class RoomCommandsTest {
             Assert.assertTrue("Message should contain content for the specific user: " + s,
                     s.contains("\"content\":{\"testId\":\""));
 
+            Assert.assertTrue("Message should suggest the nearest command: " + s,
+                    s.contains(String.format(RoomImplementation.DID_YOU_MEAN, "/go")));
+
             Assert.assertFalse("Message should not contain wildcard: " + s,
                     s.contains("*"));
         }};
@@ -314,6 +317,7 @@ public class RoomCommandsTest {
     public void testHandlePing(@Mocked Session session, @Mocked SocketHandler handler) {
         Message message = Message.createRoomMessage(ROOM_ID, TEST_ID, TEST_USERNAME, "/ping");
 
+        roomImpl.getPresence().connected(TEST_ID, TEST_USERNAME);
         roomImpl.handleMessage(message, handler);
 
         new Verifications() {{
@@ -339,6 +343,7 @@ public class RoomCommandsTest {
     public void testHandlePingStuff(@Mocked Session session, @Mocked SocketHandler handler) {
         Message message = Message.createRoomMessage(ROOM_ID, TEST_ID, TEST_USERNAME, "/ping stuff");
 
+        roomImpl.getPresence().connected(TEST_ID, TEST_USERNAME);
         roomImpl.handleMessage(message, handler);
 
         new Verifications() {{
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RoomDescriptionTest {
+
+    private final RoomDescription room = new RoomDescription();
+
+    @Test
+    public void testLocationPayloadCachedPerVersion() {
+        String payload = room.getLocationPayload();
+        Assert.assertSame(payload, room.getLocationPayload());
+
+        room.addItem("Squashy Chair");
+        String changed = room.getLocationPayload();
+        Assert.assertNotSame(payload, changed);
+        Assert.assertTrue(changed, changed.contains("\"roomInventory\":[\"Squashy Chair\"]"));
+        Assert.assertSame(changed, room.getLocationPayload());
+    }
+
+    @Test
+    public void testEveryChangeBumpsVersion() {
+        long v = room.getVersion();
+        room.setName("name");
+        Assert.assertEquals(++v, room.getVersion());
+        room.setFullName("Full Name");
+        Assert.assertEquals(++v, room.getVersion());
+        room.setDescription("description");
+        Assert.assertEquals(++v, room.getVersion());
+        room.addCommand("/cmd", "A command");
+        Assert.assertEquals(++v, room.getVersion());
+        room.removeCommand("/cmd");
+        Assert.assertEquals(++v, room.getVersion());
+        room.addItem("item");
+        Assert.assertEquals(++v, room.getVersion());
+        room.removeItem("item");
+        Assert.assertEquals(++v, room.getVersion());
+
+        room.setName(null);
+        Assert.assertEquals("Ignored changes don't count", v, room.getVersion());
+    }
+
+    @Test
+    public void testLocationMessageHeader() {
+        room.setDescription("A quiet room");
+        Message m = Message.createLocationMessage("user1", room);
+        Assert.assertEquals("player,user1," + room.getLocationPayload(), m.encode());
+        Assert.assertTrue(m.encode().contains("\"description\":\"A quiet room\""));
+    }
+
+    @Test
+    public void testSnapshotIsUnaffectedByLaterChanges() {
+        room.setName("before");
+        room.addCommand("/ping", "Pings");
+        RoomDescription.Snapshot before = room.snapshot();
+
+        room.setName("after");
+        room.addItem("lamp");
+        room.removeCommand("/ping");
+
+        Assert.assertEquals("before", before.getName());
+        Assert.assertEquals("Pings", before.getCommands().getString("/ping"));
+        Assert.assertTrue(before.getInventory().isEmpty());
+        Assert.assertEquals(before.getVersion() + 3, room.getVersion());
+
+        RoomDescription.Snapshot after = room.snapshot();
+        Assert.assertEquals("after", after.getName());
+        Assert.assertTrue(after.getCommands().isEmpty());
+        Assert.assertEquals("lamp", after.getInventory().getString(0));
+    }
+
+    @Test
+    public void testConcurrentChangesAreNotLost() throws Exception {
+        int perThread = 500;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    room.addItem("item-" + id + "-" + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        RoomDescription.Snapshot s = room.snapshot();
+        Assert.assertEquals(threads.length * perThread, s.getInventory().size());
+        Assert.assertEquals(threads.length * perThread, s.getVersion());
+    }
+
+    @Test
+    public void testExitsInLocationPayload() {
+        Assert.assertFalse(room.getLocationPayload().contains("\"exits\""));
+        java.util.Map<String, String> exits = new java.util.LinkedHashMap<>();
+        exits.put("n", "A heavy oak door");
+        room.setExits(exits);
+        Assert.assertTrue(room.getLocationPayload(),
+                room.getLocationPayload().contains("\"exits\":{\"n\":\"A heavy oak door\"}"));
+    }
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of hosting one more room: creating it on first use. Run with
+ * {@code -prof gc} to see the bytes allocated per room
+ * ({@code gc.alloc.rate.norm}), an upper bound on what each room keeps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomFootprintBenchmark {
+
+    /**
+     * As bound by Spring: one instance, shared by every room
+     */
+    private final RoomSettings settings = new RoomSettings();
+    private RoomRegistry registry;
+    private long next;
+
+    @Setup
+    public void setup() {
+        registry = new RoomRegistry(roomId -> {
+            RoomImplementation room = new RoomImplementation();
+            room.settings = settings;
+            room.postConstruct();
+            return room;
+        }, roomId -> new RoomMailbox(Runnable::run, 16, System::nanoTime),
+                new RoomSettings().getHosting(), null, System::currentTimeMillis);
+    }
+
+    @Benchmark
+    public RoomImplementation newRoom() {
+        if ((++next & 0xffff) == 0) {
+            setup();
+        }
+        return registry.get("room" + next);
+    }
+}
@@ -29,6 +29,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 
 import javax.websocket.Session;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 @RunWith(JMockit.class)
@@ -110,6 +111,7 @@ public class RoomImplementationTest {
     public void testHandleChatMessage(@Mocked Session session, @Mocked SocketHandler handler) {
         Message message = Message.createRoomMessage(ROOM_ID, TEST_ID, TEST_USERNAME, "Just chatting");
 
+        implementation.getPresence().connected(TEST_ID, TEST_USERNAME);
         implementation.handleMessage(message, handler);
 
         new Verifications() {{
@@ -197,6 +199,7 @@ public class RoomImplementationTest {
     public void testRoomGoodbye(@Mocked Session session, @Mocked SocketHandler handler) {
         Message message = Message.createRoomGoodbye(ROOM_ID, TEST_ID, TEST_USERNAME);
 
+        implementation.getPresence().connected(TEST_ID, TEST_USERNAME);
         implementation.handleMessage(message, handler);
 
         new Verifications() {{
@@ -247,4 +250,86 @@ public class RoomImplementationTest {
             times = 0;
         }};
     }
+
+    @Test
+    public void testExitTableShared() {
+        RoomImplementation one = room(new RoomSettings());
+        RoomImplementation two = room(new RoomSettings());
+        Assert.assertSame("Rooms with equal settings share one exit table", one.exits, two.exits);
+        Assert.assertSame(one.exits, room(new RoomSettings()).exits);
+
+        RoomSettings different = new RoomSettings();
+        different.getExits().get("n").setDoor("A heavy oak door");
+        Assert.assertNotSame(one.exits, room(different).exits);
+        Assert.assertSame("Back to the defaults", one.exits, room(new RoomSettings()).exits);
+    }
+
+    private static RoomImplementation room(RoomSettings settings) {
+        RoomImplementation room = new RoomImplementation();
+        room.settings = settings;
+        room.postConstruct();
+        return room;
+    }
+
+    @Test
+    public void testPresence(@Mocked SocketHandler handler) {
+        Presence presence = implementation.getPresence();
+        implementation.handleMessage(Message.createRoomHello(ROOM_ID, TEST_ID, TEST_USERNAME, 2), handler);
+        Assert.assertEquals(1, presence.getPresentCount());
+
+        implementation.handleMessage(Message.createRoomPart(ROOM_ID, TEST_ID, TEST_USERNAME), handler);
+        Assert.assertTrue(presence.isEmpty());
+        Assert.assertNotNull(presence.get(TEST_ID));
+
+        implementation.handleMessage(Message.createRoomJoin(ROOM_ID, TEST_ID, TEST_USERNAME, 2), handler);
+        Assert.assertEquals(1, presence.getPresentCount());
+        implementation.sessionClosed(TEST_ID);
+        Assert.assertTrue(presence.isEmpty());
+
+        implementation.handleMessage(Message.createRoomGoodbye(ROOM_ID, TEST_ID, TEST_USERNAME), handler);
+        Assert.assertNull(presence.get(TEST_ID));
+        Assert.assertTrue(presence.isEmpty());
+    }
+
+    @Test
+    public void testBookmarksPerRoom(@Mocked SocketHandler handler) {
+        RoomImplementation other = new RoomImplementation();
+        other.postConstruct();
+        implementation.setRoomId("first");
+        other.setRoomId("second");
+        for (RoomImplementation room : new RoomImplementation[]{implementation, other}) {
+            room.handleMessage(Message.createRoomHello(ROOM_ID, TEST_ID, TEST_USERNAME, 2), handler);
+            room.handleMessage(Message.createRoomMessage(ROOM_ID, TEST_ID, TEST_USERNAME, "hi"), handler);
+        }
+
+        List<Message> first = implementation.history.since("none");
+        List<Message> second = other.history.since("none");
+        Assert.assertEquals(Arrays.asList("room-first-1", "room-first-2"),
+                Arrays.asList(first.get(0).getBookmark(), first.get(1).getBookmark()));
+        Assert.assertEquals("Each room counts on its own", "room-second-1", second.get(0).getBookmark());
+    }
+
+    @Test
+    public void testRoomJoinReplaysMissed(@Mocked SocketHandler handler) throws Exception {
+        implementation.handleMessage(Message.createRoomHello(ROOM_ID, "other", "Other", 2), handler);
+        implementation.handleMessage(Message.createRoomMessage(ROOM_ID, "other", "Other", "first"), handler);
+        implementation.handleMessage(Message.createRoomMessage(ROOM_ID, "other", "Other", "second"), handler);
+        implementation.handleMessage(Message.createRoomMessage(ROOM_ID, "other", "Other", "third"), handler);
+
+        // The player saw "first" before reconnecting
+        List<Message> kept = implementation.history.since("none");
+        Assert.assertEquals(4, kept.size());
+        String seen = kept.get(1).getBookmark();
+
+        implementation.handleMessage(new Message("roomJoin," + ROOM_ID + ",{\"userId\":\"" + TEST_ID
+                + "\",\"username\":\"" + TEST_USERNAME + "\",\"version\":2,\"bookmark\":\"" + seen + "\"}"), handler);
+
+        new Verifications() {{
+            List<Message> replayed = new ArrayList<>();
+            handler.sendToPlayer(TEST_ID, withCapture(replayed));
+            Assert.assertEquals(2, replayed.size());
+            Assert.assertTrue(replayed.get(0).encode().contains("\"content\":\"second\""));
+            Assert.assertTrue(replayed.get(1).encode().contains("\"content\":\"third\""));
+        }};
+    }
 }
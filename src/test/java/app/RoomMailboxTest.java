@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RoomMailboxTest {
+
+    private long nanos;
+
+    @Test
+    public void testOneAtATime() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool(RoomThreads.named("test-room"));
+        try {
+            RoomMailbox mailbox = new RoomMailbox(executor, 100000, System::nanoTime);
+            int threads = 4;
+            int perThread = 2000;
+            AtomicBoolean running = new AtomicBoolean();
+            AtomicBoolean overlapped = new AtomicBoolean();
+            int[] count = {0};
+            CountDownLatch done = new CountDownLatch(threads * perThread);
+
+            List<Thread> senders = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                senders.add(new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        Assert.assertTrue(mailbox.offer(() -> {
+                            if (!running.compareAndSet(false, true)) {
+                                overlapped.set(true);
+                            }
+                            count[0]++;
+                            running.set(false);
+                            done.countDown();
+                        }));
+                    }
+                }));
+            }
+            senders.forEach(Thread::start);
+
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            Assert.assertFalse("Tasks for a room should never run at the same time", overlapped.get());
+            Assert.assertEquals(threads * perThread, count[0]);
+            // Counted once the last task returns, which may be just after the latch opens
+            long deadline = System.currentTimeMillis() + 5000;
+            while (mailbox.getProcessed() < threads * perThread && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(threads * perThread, mailbox.getProcessed());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testInOrder() {
+        List<Runnable> drains = new ArrayList<>();
+        RoomMailbox mailbox = new RoomMailbox(drains::add, 10, () -> nanos);
+        List<Integer> seen = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final int n = i;
+            mailbox.offer(() -> seen.add(n));
+        }
+        Assert.assertEquals("Only one drain should be scheduled", 1, drains.size());
+        Assert.assertEquals(5, mailbox.getDepth());
+
+        drains.get(0).run();
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4), seen);
+        Assert.assertEquals(0, mailbox.getDepth());
+        Assert.assertEquals(5, mailbox.getMaxDepth());
+    }
+
+    @Test
+    public void testFull() {
+        List<Runnable> drains = new ArrayList<>();
+        RoomMailbox mailbox = new RoomMailbox(drains::add, 2, () -> nanos);
+        int[] ran = {0};
+        Assert.assertTrue(mailbox.offer(() -> ran[0]++));
+        Assert.assertTrue(mailbox.offer(() -> ran[0]++));
+        Assert.assertFalse("Messages over capacity are refused", mailbox.offer(() -> ran[0]++));
+        mailbox.put(() -> ran[0]++);
+        Assert.assertEquals("Housekeeping is never refused", 3, mailbox.getDepth());
+        Assert.assertEquals(1, mailbox.getRejected());
+
+        drains.get(0).run();
+        Assert.assertEquals(3, ran[0]);
+        Assert.assertTrue(mailbox.offer(() -> ran[0]++));
+    }
+
+    @Test
+    public void testSharesLane() {
+        List<Runnable> lane = new ArrayList<>();
+        RoomMailbox busy = new RoomMailbox(lane::add, lane::add, 100, 3, () -> nanos);
+        RoomMailbox quiet = new RoomMailbox(lane::add, lane::add, 100, 3, () -> nanos);
+        List<String> seen = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final int n = i;
+            busy.offer(() -> seen.add("busy-" + n));
+        }
+        quiet.offer(() -> seen.add("quiet"));
+        Assert.assertEquals(2, lane.size());
+
+        while (!lane.isEmpty()) {
+            lane.remove(0).run();
+        }
+        Assert.assertEquals("The quiet room should run after one batch of the busy one",
+                Arrays.asList("busy-0", "busy-1", "busy-2", "quiet", "busy-3", "busy-4", "busy-5",
+                        "busy-6", "busy-7", "busy-8", "busy-9"), seen);
+        Assert.assertEquals(10, busy.getProcessed());
+        Assert.assertEquals(0, busy.getDepth());
+    }
+
+    @Test
+    public void testFullLaneKeepsDraining() {
+        List<Runnable> drains = new ArrayList<>();
+        RoomMailbox mailbox = new RoomMailbox(drains::add, task -> {
+            throw new RejectedExecutionException("lane full");
+        }, 100, 3, () -> nanos);
+        int[] ran = {0};
+        for (int i = 0; i < 10; i++) {
+            mailbox.offer(() -> ran[0]++);
+        }
+        drains.remove(0).run();
+        Assert.assertEquals("With nowhere to go, the drain carries on", 10, ran[0]);
+        Assert.assertTrue(drains.isEmpty());
+    }
+
+    @Test
+    public void testProcessingTime() {
+        RoomMailbox mailbox = new RoomMailbox(Runnable::run, 10, () -> nanos);
+        mailbox.offer(() -> nanos += 3000);
+        mailbox.offer(() -> nanos += 1000);
+        mailbox.offer(() -> {
+            throw new IllegalStateException("Keep going");
+        });
+        Assert.assertEquals(3, mailbox.getProcessed());
+        Assert.assertEquals(4000, mailbox.getProcessingNanos());
+        Assert.assertEquals(3000, mailbox.getMaxProcessingNanos());
+    }
+}
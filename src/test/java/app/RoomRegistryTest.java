@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RoomRegistryTest {
+
+    private long now = 5000;
+    private final TimerWheel wheel = new TimerWheel(10, 8, () -> now);
+    private final List<String> created = new ArrayList<>();
+    private final RoomSettings.Hosting settings = new RoomSettings.Hosting();
+    private RoomRegistry registry;
+
+    private RoomRegistry registry() {
+        settings.setIdleTimeoutMs(1000);
+        settings.setShards(3);
+        return new RoomRegistry(roomId -> {
+            created.add(roomId);
+            RoomImplementation room = new RoomImplementation();
+            room.postConstruct();
+            return room;
+        }, roomId -> new RoomMailbox(Runnable::run, 16, System::nanoTime), settings, wheel, () -> now);
+    }
+
+    @Test
+    public void testCreatedOnFirstUse() {
+        registry = registry();
+        Assert.assertNull(registry.peek("room1"));
+        Assert.assertEquals(0, registry.size());
+
+        RoomImplementation room1 = registry.get("room1");
+        Assert.assertEquals("room1", room1.getRoomId());
+        Assert.assertSame(room1, registry.get("room1"));
+        Assert.assertSame(room1, registry.peek("room1"));
+        Assert.assertNotSame(room1, registry.get("room2"));
+
+        Assert.assertEquals(2, registry.size());
+        Assert.assertEquals(2, registry.getCreated());
+        Assert.assertEquals(2, created.size());
+    }
+
+    @Test
+    public void testManyRoomsOverShards() {
+        registry = registry();
+        for (int i = 0; i < 1000; i++) {
+            registry.get("room" + i);
+        }
+        Assert.assertEquals(1000, registry.size());
+        int[] count = {0};
+        registry.forEach(r -> count[0]++);
+        Assert.assertEquals(1000, count[0]);
+    }
+
+    @Test
+    public void testIdleRoomEvicted() {
+        registry = registry();
+        registry.get("room1");
+
+        advanceTo(5990);
+        Assert.assertNotNull(registry.peek("room1"));
+        advanceTo(6000);
+        Assert.assertNull("Empty, idle rooms should be forgotten", registry.peek("room1"));
+        Assert.assertEquals(1, registry.getEvicted());
+        Assert.assertEquals(0, registry.size());
+
+        RoomImplementation again = registry.get("room1");
+        Assert.assertEquals("room1", again.getRoomId());
+        Assert.assertEquals(2, registry.getCreated());
+    }
+
+    @Test
+    public void testPendingTimersKeepRoom() {
+        registry = registry();
+        boolean[] respawned = {false};
+        RoomScheduler.Timer timer = registry.get("room1").getScheduler().schedule(() -> respawned[0] = true, 1500);
+        RoomScheduler.Timer repeating = registry.get("room2").getScheduler().scheduleRepeating(() -> {
+        }, 100);
+
+        advanceTo(6000);
+        Assert.assertNotNull("Waiting on its own timer", registry.peek("room1"));
+        Assert.assertNotNull("Waiting on its own timer", registry.peek("room2"));
+
+        advanceTo(6500);
+        Assert.assertTrue("Timers aren't cancelled by idleness", respawned[0]);
+        Assert.assertFalse(timer.isCancelled());
+        advanceTo(7000);
+        Assert.assertNull("Idle once the timer ran", registry.peek("room1"));
+        Assert.assertNotNull(registry.peek("room2"));
+
+        repeating.cancel();
+        advanceTo(8000);
+        Assert.assertNull(registry.peek("room2"));
+    }
+
+    @Test
+    public void testMaxRooms() {
+        settings.setMaxRooms(2);
+        registry = registry();
+        Assert.assertNotNull(registry.get("room1"));
+        Assert.assertNotNull(registry.get("room2"));
+        Assert.assertNull("Full: no new rooms", registry.get("room3"));
+        Assert.assertNotNull("Hosted rooms are still found", registry.get("room1"));
+        Assert.assertEquals(2, registry.size());
+        Assert.assertEquals(1, registry.getRefused());
+
+        advanceTo(6000);
+        Assert.assertEquals(0, registry.size());
+        Assert.assertNotNull("Room again once others are forgotten", registry.get("room3"));
+    }
+
+    @Test
+    public void testCreationRefused() {
+        registry = registry();
+        Assert.assertNull(registry.get("room1", () -> false));
+        Assert.assertNull(registry.peek("room1"));
+        Assert.assertTrue(created.isEmpty());
+
+        RoomImplementation room = registry.get("room1");
+        Assert.assertSame("Only asked when the room has to be created", room, registry.get("room1", () -> false));
+    }
+
+    @Test
+    public void testUsedRoomKept() {
+        registry = registry();
+        registry.get("room1");
+
+        advanceTo(5500);
+        registry.get("room1");
+        advanceTo(6000);
+        Assert.assertNotNull("Used since: check again later", registry.peek("room1"));
+        advanceTo(6500);
+        Assert.assertNull(registry.peek("room1"));
+    }
+
+    @Test
+    public void testOccupiedRoomKept() {
+        registry = registry();
+        registry.get("room1").getPresence().connected("user1", "User 1");
+
+        advanceTo(10000);
+        Assert.assertNotNull("Rooms with someone in them are never forgotten", registry.peek("room1"));
+        Assert.assertEquals(0, registry.getEvicted());
+
+        registry.peek("room1").getPresence().disconnected("user1");
+        advanceTo(11000);
+        Assert.assertNull(registry.peek("room1"));
+    }
+
+    @Test
+    public void testChatWithoutHelloDoesNotOccupy() {
+        registry = registry();
+        RoomImplementation room = registry.get("room1");
+        room.handleMessage(Message.createRoomMessage("room1", "user1", "User 1", "hi"), null);
+        Assert.assertTrue(room.getPresence().isEmpty());
+
+        advanceTo(6000);
+        Assert.assertNull("No one said hello: nothing keeps the room", registry.peek("room1"));
+    }
+
+    @Test
+    public void testPruneUsesRoomClock() {
+        registry = registry();
+        Presence presence = registry.get("room1").getPresence();
+        presence.connected("user1", "User 1");
+        presence.disconnected("user1");
+        Assert.assertEquals(now, presence.get("user1").getLastActivity());
+
+        now += Presence.PARTED_RETENTION_MS + 1;
+        presence.prune();
+        Assert.assertNull(presence.get("user1"));
+    }
+
+    private void advanceTo(long time) {
+        while (now < time) {
+            now = Math.min(time, now + 10);
+            wheel.advance();
+        }
+    }
+}
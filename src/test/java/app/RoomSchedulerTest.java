@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class RoomSchedulerTest {
+
+    private volatile long now = 5000;
+    private final TimerWheel wheel = new TimerWheel(10, 8, () -> now);
+    /**
+     * Drains waiting to run on the "room thread": run by the test
+     */
+    private final List<Runnable> drains = new ArrayList<>();
+    private final RoomMailbox mailbox = new RoomMailbox(drains::add, 16, System::nanoTime);
+    private final RoomScheduler scheduler = new RoomScheduler(wheel, mailbox);
+    private final List<String> fired = new ArrayList<>();
+
+    @Test
+    public void testRunsInMailbox() {
+        scheduler.schedule(() -> fired.add("later"), 100);
+        mailbox.offer(() -> fired.add("message"));
+        Assert.assertEquals(1, scheduler.getPending());
+
+        advanceTo(5100);
+        Assert.assertTrue("Tasks run on the room's thread, not the wheel's", fired.isEmpty());
+        Assert.assertEquals(2, mailbox.getDepth());
+
+        runRoom();
+        Assert.assertEquals(Arrays.asList("message", "later"), fired);
+        Assert.assertEquals(0, scheduler.getPending());
+    }
+
+    @Test
+    public void testCancel() {
+        RoomScheduler.Timer cancelled = scheduler.schedule(() -> fired.add("cancelled"), 10);
+        scheduler.schedule(() -> fired.add("kept"), 10);
+        cancelled.cancel();
+        Assert.assertEquals(1, scheduler.getPending());
+
+        advanceTo(5010);
+        runRoom();
+        Assert.assertTrue(cancelled.isCancelled());
+        Assert.assertEquals(Arrays.asList("kept"), fired);
+    }
+
+    @Test
+    public void testCancelAfterExpired() {
+        RoomScheduler.Timer t = scheduler.schedule(() -> fired.add("too late"), 10);
+        advanceTo(5010);
+        Assert.assertEquals("Queued for the room", 1, mailbox.getDepth());
+
+        t.cancel();
+        runRoom();
+        Assert.assertTrue("Cancelled before it ran: it shouldn't run", fired.isEmpty());
+    }
+
+    @Test
+    public void testRepeating() {
+        int[] runs = {0};
+        RoomScheduler.Timer t = scheduler.scheduleRepeating(() -> runs[0]++, 50);
+
+        for (int i = 1; i <= 3; i++) {
+            advanceTo(5000 + i * 50);
+            runRoom();
+            Assert.assertEquals(i, runs[0]);
+        }
+        Assert.assertEquals(1, scheduler.getPending());
+
+        t.cancel();
+        advanceTo(5500);
+        runRoom();
+        Assert.assertEquals(3, runs[0]);
+        Assert.assertEquals(0, scheduler.getPending());
+    }
+
+    @Test
+    public void testClose() {
+        for (int i = 0; i < 1000; i++) {
+            scheduler.schedule(() -> fired.add("pending"), 10 + i);
+        }
+        Assert.assertEquals(1000, scheduler.getPending());
+
+        scheduler.close();
+        Assert.assertEquals(0, scheduler.getPending());
+        RoomScheduler.Timer after = scheduler.schedule(() -> fired.add("after"), 10);
+        Assert.assertTrue("Nothing new once closed", after.isCancelled());
+
+        advanceTo(7000);
+        runRoom();
+        Assert.assertTrue(fired.isEmpty());
+    }
+
+    @Test
+    public void testLaneFullRetriesNextTick() {
+        boolean[] full = {true};
+        RoomMailbox noWait = new RoomMailbox(drains::add, task -> {
+            if (full[0]) {
+                throw new RejectedExecutionException("Lane full");
+            }
+            drains.add(task);
+        }, 16, System::nanoTime);
+        RoomScheduler s = new RoomScheduler(wheel, noWait);
+        s.schedule(() -> fired.add("later"), 10);
+
+        advanceTo(5010);
+        Assert.assertEquals("Left in the mailbox", 1, noWait.getDepth());
+        Assert.assertTrue("The wheel doesn't wait for the lane", drains.isEmpty());
+
+        advanceTo(5030);
+        Assert.assertTrue(drains.isEmpty());
+
+        full[0] = false;
+        advanceTo(5050);
+        runRoom();
+        Assert.assertEquals(Arrays.asList("later"), fired);
+        Assert.assertEquals(0, s.getPending());
+    }
+
+    @Test
+    public void testRoomTimers() throws Exception {
+        SocketHandler handler = new SocketHandler();
+        handler.clock = () -> now;
+        handler.postConstruct();
+        try {
+            RoomImplementation room = handler.getRooms().get("room1");
+            Thread[] ranOn = {null};
+            CountDownLatch done = new CountDownLatch(1);
+            room.getScheduler().schedule(() -> {
+                ranOn[0] = Thread.currentThread();
+                done.countDown();
+            }, 1000);
+
+            now += 1000;
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue("Timers run on the room's lane", ranOn[0].getName().startsWith("room-lane"));
+        } finally {
+            handler.preDestroy();
+        }
+    }
+
+    private void advanceTo(long time) {
+        while (now < time) {
+            now++;
+            wheel.advance();
+        }
+    }
+
+    private void runRoom() {
+        while (!drains.isEmpty()) {
+            drains.remove(0).run();
+        }
+    }
+}
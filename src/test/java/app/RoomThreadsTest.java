@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class RoomThreadsTest {
+
+    @Test
+    public void testVirtualWhenAvailable() throws Exception {
+        ExecutorService executor = RoomThreads.newTaskExecutor("test-writer", true);
+        try {
+            Future<Boolean> virtual = executor.submit(() -> isVirtual(Thread.currentThread()));
+            Assert.assertEquals("Virtual threads should be used only when the JVM has them",
+                    RoomThreads.isVirtualAvailable(), virtual.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPlatformThreadNames() {
+        Thread t = RoomThreads.named("test-lane", false).newThread(() -> {
+        });
+        Assert.assertEquals("test-lane-1", t.getName());
+        Assert.assertTrue(t.isDaemon());
+        Assert.assertFalse(isVirtual(t));
+    }
+
+    private static boolean isVirtual(Thread t) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(t);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SessionRegistryTest {
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private SessionRegistry registry;
+
+    @Before
+    public void before() {
+        System.out.println(" ===== " + testName.getMethodName());
+        registry = new SessionRegistry();
+    }
+
+    @Test
+    public void testAddRemove() {
+        SessionEntry a = registry.add(entry("a"));
+        SessionEntry b = registry.add(entry("b"));
+
+        Assert.assertEquals(2, registry.size());
+        Assert.assertSame(a, registry.get("a"));
+        Assert.assertSame(b, registry.snapshot()[1]);
+
+        // adding the same session again returns the original entry
+        Assert.assertSame(a, registry.add(entry("a")));
+        Assert.assertEquals(2, registry.size());
+
+        Assert.assertSame(a, registry.remove("a"));
+        Assert.assertNull(registry.remove("a"));
+        Assert.assertNull(registry.get("a"));
+        Assert.assertEquals(1, registry.size());
+        Assert.assertSame(b, registry.snapshot()[0]);
+    }
+
+    @Test
+    public void testSnapshotIsStableDuringChurn() throws Exception {
+        int writers = 4;
+        int perWriter = 500;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perWriter; i++) {
+                        String id = writer + "-" + i;
+                        registry.add(entry(id));
+                        if (i % 2 == 0) {
+                            registry.remove(id);
+                        }
+                    }
+                } catch (Exception e) {
+                    failed.set(true);
+                }
+            }));
+        }
+
+        Thread reader = new Thread(() -> {
+            try {
+                start.await();
+                for (int i = 0; i < 2000; i++) {
+                    for (SessionEntry e : registry.snapshot()) {
+                        if (e == null) {
+                            failed.set(true);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                failed.set(true);
+            }
+        });
+        threads.add(reader);
+
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Assert.assertFalse("Iteration or registration failed during churn", failed.get());
+        Assert.assertEquals(writers * perWriter / 2, registry.size());
+    }
+
+    static SessionEntry entry(String id) {
+        return new SessionEntry(new StubSession(id), Runnable::run, null, new RoomSettings.Outbound(), 0, null, null);
+    }
+}
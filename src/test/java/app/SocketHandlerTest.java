@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+
+/**
+ * SocketHandler with real (stub) sessions: what goes where?
+ */
+public class SocketHandlerTest {
+
+    public static final String ROOM_ID = "roomId";
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private SocketHandler handler;
+    private StubSession a;
+    private StubSession b;
+
+    @Before
+    public void before() throws Exception {
+        System.out.println(" ===== " + testName.getMethodName());
+
+        handler = new SocketHandler();
+        handler.postConstruct();
+
+        a = new StubSession("a");
+        b = new StubSession("b");
+        handler.afterConnectionEstablished(a);
+        handler.afterConnectionEstablished(b);
+        awaitSent(a, 1);
+        awaitSent(b, 1);
+    }
+
+    @After
+    public void after() {
+        handler.preDestroy();
+    }
+
+    @Test
+    public void testTargetedMessagesGoToPlayerSession() throws Exception {
+        // hello: location message to user1 only, broadcast to both
+        receive(a, Message.createRoomHello(ROOM_ID, "user1", "User 1", 2));
+        awaitSent(a, 3);
+        awaitSent(b, 2);
+
+        // look: location message to user1 only
+        receive(a, Message.createRoomMessage(ROOM_ID, "user1", "User 1", "/look"));
+        awaitSent(a, 4);
+        Assert.assertTrue(last(a).startsWith("player,user1,{\"type\":\"location\""));
+        Assert.assertEquals("Session b should not see user1's location", 2, b.sent.size());
+        Assert.assertEquals(0, handler.getSessions().get("b").getOutbound().getDepth());
+
+        // chat goes to everyone
+        receive(a, Message.createRoomMessage(ROOM_ID, "user1", "User 1", "hi"));
+        awaitSent(a, 5);
+        awaitSent(b, 3);
+    }
+
+    @Test
+    public void testUnknownPlayerIsBroadcast() throws Exception {
+        handler.sendMessage(Message.createSpecificEvent("stranger", "Who are you?"));
+        awaitSent(a, 2);
+        awaitSent(b, 2);
+    }
+
+    @Test
+    public void testRoutesRemoved() throws Exception {
+        receive(a, Message.createRoomHello(ROOM_ID, "user1", "User 1", 2));
+        receive(b, Message.createRoomJoin(ROOM_ID, "user2", "User 2", 2));
+        Assert.assertEquals(2, handler.getRoutes().size());
+
+        receive(a, Message.createRoomGoodbye(ROOM_ID, "user1", "User 1"));
+        Assert.assertNull(handler.getRoutes().get("user1"));
+
+        handler.afterConnectionClosed(b, CloseStatus.NORMAL);
+        Assert.assertNull(handler.getRoutes().get("user2"));
+        Assert.assertEquals(0, handler.getRoutes().size());
+        Assert.assertEquals(1, handler.getSessionCount());
+    }
+
+    @Test
+    public void testRoomsAreSeparate() throws Exception {
+        // b is in no room until its hello: until then it sees every room's broadcasts
+        receive(b, Message.createRoomHello("otherRoom", "user2", "User 2", 2));
+        awaitSent(b, 3);
+        awaitSent(a, 2);
+        receive(a, Message.createRoomHello(ROOM_ID, "user1", "User 1", 2));
+        awaitSent(a, 4);
+        Assert.assertEquals(2, handler.getRooms().size());
+        Assert.assertNotSame(handler.getRooms().peek(ROOM_ID), handler.getRooms().peek("otherRoom"));
+
+        // chat only goes to the sessions in the room
+        receive(a, Message.createRoomMessage(ROOM_ID, "user1", "User 1", "hi"));
+        awaitSent(a, 5);
+        Thread.sleep(50);
+        Assert.assertEquals("Session b is in another room", 3, b.sent.size());
+        Assert.assertEquals(1, handler.getRooms().peek(ROOM_ID).getPresence().getPresentCount());
+        Assert.assertEquals(1, handler.getRooms().peek("otherRoom").getPresence().getPresentCount());
+    }
+
+    @Test
+    public void testSessionClosedOnlyInJoinedRooms() throws Exception {
+        // user2 is in the room through b, and in another room through a (with user1)
+        receive(b, Message.createRoomHello(ROOM_ID, "user2", "User 2", 2));
+        awaitSent(b, 3);
+        receive(a, Message.createRoomHello(ROOM_ID, "user1", "User 1", 2));
+        receive(a, Message.createRoomHello("otherRoom", "user2", "User 2", 2));
+        RoomImplementation room = handler.getRooms().peek(ROOM_ID);
+        RoomImplementation other = handler.getRooms().peek("otherRoom");
+        awaitPresent(room, 2);
+        awaitPresent(other, 1);
+
+        handler.afterConnectionClosed(a, CloseStatus.NORMAL);
+        awaitPresent(other, 0);
+        awaitPresent(room, 1);
+        Thread.sleep(50);
+        Assert.assertTrue("user2 is still in the room through b", room.getPresence().get("user2").isPresent());
+        Assert.assertFalse(room.getPresence().get("user1").isPresent());
+    }
+
+    private static void awaitPresent(RoomImplementation room, int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (room.getPresence().getPresentCount() != count && System.currentTimeMillis() < end) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(count, room.getPresence().getPresentCount());
+    }
+
+    @Test
+    public void testThrottled() throws Exception {
+        handler.preDestroy();
+        handler = new SocketHandler();
+        handler.settings.getRateLimit().setSessionRate(0.001);
+        handler.settings.getRateLimit().setSessionBurst(1);
+        handler.postConstruct();
+        StubSession c = new StubSession("c");
+        StubSession d = new StubSession("d");
+        handler.afterConnectionEstablished(c);
+        handler.afterConnectionEstablished(d);
+        awaitSent(c, 1);
+        awaitSent(d, 1);
+
+        receive(c, Message.createRoomHello(ROOM_ID, "user1", "User 1", 2));
+        awaitSent(c, 3);
+        receive(c, Message.createRoomMessage(ROOM_ID, "user1", "User 1", "hi"));
+        awaitSent(c, 4);
+        awaitSent(d, 3);
+        Assert.assertTrue(last(c).contains("\"content\":\"hi\""));
+
+        receive(c, Message.createRoomMessage(ROOM_ID, "user1", "User 1", "spam"));
+        awaitSent(c, 5);
+        Assert.assertTrue(last(c).contains(SocketHandler.SLOW_DOWN));
+        Assert.assertEquals(1, handler.getRateLimiter().getSessionThrottled());
+        Thread.sleep(50);
+        Assert.assertEquals("Throttled messages should not be broadcast", 3, d.sent.size());
+    }
+
+    @Test
+    public void testRoomCreationLimited() throws Exception {
+        handler.preDestroy();
+        handler = new SocketHandler();
+        handler.settings.getRateLimit().setRoomCreationRate(0.001);
+        handler.settings.getRateLimit().setRoomCreationBurst(1);
+        handler.postConstruct();
+        StubSession c = new StubSession("c");
+        handler.afterConnectionEstablished(c);
+        awaitSent(c, 1);
+
+        receive(c, Message.createRoomHello(ROOM_ID, "user1", "User 1", 2));
+        awaitSent(c, 3);
+        receive(c, Message.createRoomHello("another", "user1", "User 1", 2));
+        awaitSent(c, 4);
+        Assert.assertTrue(last(c).contains(SocketHandler.ROOM_UNAVAILABLE));
+        Assert.assertNull("Not created", handler.getRooms().peek("another"));
+        Assert.assertEquals(1, handler.getRateLimiter().getRoomCreationThrottled());
+        Assert.assertFalse("The session doesn't join a room that wasn't opened",
+                handler.getSessions().get("c").getPlayers().containsKey("another"));
+
+        receive(c, Message.createRoomHello(ROOM_ID, "user2", "User 2", 2));
+        awaitSent(c, 6);
+        Assert.assertEquals("Existing rooms aren't limited", 1, handler.getRooms().getCreated());
+    }
+
+    private void receive(StubSession session, Message message) throws Exception {
+        handler.handleMessage(session, new TextMessage(message.encode()));
+    }
+
+    static String last(StubSession session) {
+        return session.sent.get(session.sent.size() - 1).getPayload().toString();
+    }
+
+    /**
+     * Writes are asynchronous: wait for them to land
+     */
+    static void awaitSent(StubSession session, int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (session.sent.size() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals("Messages sent to " + session.getId() + ": " + session.sent, count, session.sent.size());
+    }
+}
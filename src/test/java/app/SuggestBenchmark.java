@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "Did you mean" for a mistyped command, in a room with a few or many
+ * registered commands.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SuggestBenchmark {
+
+    @Param({"4", "500"})
+    int commands;
+
+    private CommandRegistry registry;
+
+    @Setup
+    public void setup() {
+        registry = new CommandRegistry(new RoomDescription());
+        CommandRegistry.Command command = (userId, username, content, argument, handler) -> {
+        };
+        registry.register("/go", null, command);
+        registry.register("/look", null, command, "/examine");
+        registry.register("/ping", null, command);
+        for (int i = 4; i < commands; i++) {
+            registry.register("/custom" + Integer.toString(i, 36), null, command);
+        }
+    }
+
+    @Benchmark
+    public String nearMiss() {
+        return registry.suggest("/exmaine the room");
+    }
+
+    @Benchmark
+    public String noMatch() {
+        return registry.suggest("/dance wildly");
+    }
+}
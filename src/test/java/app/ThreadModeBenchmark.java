@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A room broadcasting to many sessions with slow connections, on platform
+ * threads versus virtual threads ({@code room.threads.virtual}).
+ * <p>
+ * Drives the path the mode changes: the broadcast runs on a
+ * {@link PartitionedDispatcher} lane, and queues one frame on each
+ * session's {@link OutboundQueue}; each queue is drained by a writer from
+ * {@link RoomThreads#newTaskExecutor}, against a session whose writes
+ * block for 5ms (a slow peer). An operation ends once every session has
+ * been written to.
+ * <p>
+ * Virtual threads need Java 21 or later: on older JDKs both modes use
+ * platform threads, and report the same numbers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss256k")
+public class ThreadModeBenchmark {
+
+    private static final long WRITE_MS = 5;
+
+    @Param({"false", "true"})
+    boolean virtual;
+
+    @Param({"100", "2000"})
+    int sessions;
+
+    private ExecutorService writers;
+    private PartitionedDispatcher dispatcher;
+    private OutboundQueue[] queues;
+    private OutboundFrame frame;
+    private volatile CountDownLatch written;
+
+    @Setup
+    public void setup() {
+        writers = RoomThreads.newTaskExecutor("bench-writer", virtual);
+        dispatcher = new PartitionedDispatcher(1, 16, RoomThreads.named("bench-lane", virtual));
+        RoomSettings.Outbound settings = new RoomSettings.Outbound();
+        settings.setCoalesceWindowMs(0);
+        queues = new OutboundQueue[sessions];
+        for (int i = 0; i < sessions; i++) {
+            queues[i] = new OutboundQueue(new SlowSession("s" + i), writers, null, settings, 0);
+        }
+        frame = OutboundFrame.of(Message.createChatMessage("bench", "Hello, everyone"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        dispatcher.shutdown();
+        writers.shutdownNow();
+    }
+
+    @Benchmark
+    public void broadcastToSlowSessions() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(sessions);
+        written = done;
+        dispatcher.executor("room").execute(() -> {
+            for (OutboundQueue queue : queues) {
+                queue.offer(frame);
+            }
+        });
+        done.await();
+    }
+
+    /**
+     * A session on a slow connection: each write blocks
+     */
+    private class SlowSession extends StubSession {
+
+        SlowSession(String id) {
+            super(id);
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            try {
+                Thread.sleep(WRITE_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            written.countDown();
+        }
+    }
+}
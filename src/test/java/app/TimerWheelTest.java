@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TimerWheelTest {
+
+    private long now = 5000;
+    private final TimerWheel wheel = new TimerWheel(10, 8, () -> now);
+    private final List<String> fired = new ArrayList<>();
+
+    @Test
+    public void testFiresAfterDeadline() {
+        wheel.schedule(() -> fired.add("b"), 25);
+        wheel.schedule(() -> fired.add("a"), 5);
+
+        advanceTo(5009);
+        Assert.assertTrue("Timeouts fire on a tick boundary", fired.isEmpty());
+        advanceTo(5010);
+        Assert.assertEquals(Arrays.asList("a"), fired);
+        advanceTo(5029);
+        Assert.assertEquals(Arrays.asList("a"), fired);
+        advanceTo(5030);
+        Assert.assertEquals(Arrays.asList("a", "b"), fired);
+    }
+
+    @Test
+    public void testErrorDoesNotStopWheel() {
+        wheel.schedule(() -> {
+            throw new AssertionError("boom");
+        }, 10);
+        wheel.schedule(() -> fired.add("same tick"), 10);
+        wheel.schedule(() -> fired.add("later"), 20);
+
+        advanceTo(5020);
+        Assert.assertEquals(Arrays.asList("same tick", "later"), fired);
+    }
+
+    @Test
+    public void testCancel() {
+        TimerWheel.Timeout t = wheel.schedule(() -> fired.add("cancelled"), 10);
+        wheel.schedule(() -> fired.add("kept"), 10);
+        t.cancel();
+
+        advanceTo(5100);
+        Assert.assertTrue(t.isCancelled());
+        Assert.assertEquals(Arrays.asList("kept"), fired);
+    }
+
+    @Test
+    public void testLongerThanOneRotation() {
+        // 8 buckets of 10ms: 1000ms goes around the wheel many times
+        wheel.schedule(() -> fired.add("later"), 1000);
+
+        advanceTo(5990);
+        Assert.assertTrue(fired.isEmpty());
+        advanceTo(6000);
+        Assert.assertEquals(Arrays.asList("later"), fired);
+    }
+
+    @Test
+    public void testRescheduleFromTask() {
+        wheel.schedule(() -> {
+            fired.add("first");
+            wheel.schedule(() -> fired.add("second"), 0);
+        }, 10);
+
+        advanceTo(5010);
+        Assert.assertEquals(Arrays.asList("first"), fired);
+        advanceTo(5020);
+        Assert.assertEquals(Arrays.asList("first", "second"), fired);
+    }
+
+    /**
+     * Move time forward, one millisecond at a time, advancing the wheel as a timer would
+     */
+    private void advanceTo(long time) {
+        while (now < time) {
+            now++;
+            wheel.advance();
+        }
+    }
+}
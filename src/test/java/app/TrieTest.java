@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2017 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+
+package app;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TrieTest {
+
+    @Test
+    public void testPersistent() {
+        Trie<String> empty = Trie.empty();
+        Trie<String> one = empty.put("/Look", "look");
+        Trie<String> two = one.put("/loot", "loot");
+        Trie<String> removed = two.remove("/LOOK");
+
+        Assert.assertEquals(0, empty.size());
+        Assert.assertEquals(1, one.size());
+        Assert.assertEquals(2, two.size());
+        Assert.assertEquals(1, removed.size());
+
+        Assert.assertEquals("look", one.get("/look"));
+        Assert.assertNull(one.get("/loot"));
+        Assert.assertEquals("look", two.get("/LOOK"));
+        Assert.assertNull(removed.get("/look"));
+        Assert.assertEquals("loot", removed.get("/loot"));
+        Assert.assertNull(removed.get("/loo"));
+
+        Assert.assertSame(removed, removed.remove("/missing"));
+        Assert.assertEquals(2, two.put("/look", "again").size());
+        Assert.assertTrue(removed.remove("/loot").size() == 0);
+    }
+
+    @Test
+    public void testNearest() {
+        Trie<String> t = Trie.<String>empty()
+                .put("/look", "/look")
+                .put("/examine", "/examine")
+                .put("/go", "/go")
+                .put("/ping", "/ping");
+
+        assertNearest(t, "/lok", 1, "/look", 1);
+        assertNearest(t, "/LOOK", 0, "/look", 0);
+        assertNearest(t, "/exmaine", 2, "/examine", 2);
+        assertNearest(t, "/pong", 1, "/ping", 1);
+        assertNearest(t, "/goe", 1, "/go", 1);
+        Assert.assertNull(t.nearest("/dance", 0, 6, 2));
+        Assert.assertNull(t.nearest("/exmaine", 0, 8, 1));
+
+        // Region of a longer string
+        Trie.Match<String> m = t.nearest("  /lookk at it", 2, 8, 1);
+        Assert.assertEquals("/look", m.getValue());
+    }
+
+    @Test
+    public void testNearestPrefersCloserThenSorted() {
+        Trie<String> t = Trie.<String>empty()
+                .put("abcd", "abcd")
+                .put("abce", "abce")
+                .put("abc", "abc");
+        assertNearest(t, "abcf", 2, "abc", 1);
+        assertNearest(t, "abxd", 2, "abcd", 1);
+
+        Trie<String> ties = Trie.<String>empty().put("bat", "bat").put("cat", "cat");
+        assertNearest(ties, "hat", 1, "bat", 1);
+    }
+
+    @Test
+    public void testManyWords() {
+        Trie<Integer> t = Trie.empty();
+        for (int i = 0; i < 1000; i++) {
+            t = t.put("/command" + i, i);
+        }
+        Assert.assertEquals(1000, t.size());
+        assertNearest(t, "/comand742", 2, 742, 1);
+        assertNearest(t, "/command742z", 1, 742, 1);
+    }
+
+    private static <V> void assertNearest(Trie<V> t, String word, int max, V expected, int distance) {
+        Trie.Match<V> m = t.nearest(word, 0, word.length(), max);
+        Assert.assertNotNull(word, m);
+        Assert.assertEquals(word, expected, m.getValue());
+        Assert.assertEquals(word, distance, m.getDistance());
+    }
+}